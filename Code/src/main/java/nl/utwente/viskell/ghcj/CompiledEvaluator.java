@@ -0,0 +1,302 @@
+package nl.utwente.viskell.ghcj;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+import com.google.common.io.CharStreams;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Evaluator implementation that runs uploaded bindings as optimized native code.
+ *
+ * Every let binding sent to this evaluator gets a generated module of its own,
+ * which imports the modules of the bindings it uses. Before the next expression
+ * is evaluated, the modules that are new are compiled with ghc -O and the object
+ * code is loaded into ghci. Modules are named after the hash of their contents and
+ * kept in a cache directory, so a binding is only compiled again when it, or one of
+ * the bindings it uses, has changed.
+ *
+ * Compilation happens while the evaluator prepares a command, so it counts against
+ * the deadline of that command, and interrupting the evaluator stops it.
+ *
+ * The let bindings are also sent to ghci as they are, so they are checked right
+ * away. A binding that can not be compiled stays in interpreted form, and the
+ * reason is reported as a warning.
+ */
+public class CompiledEvaluator extends GhciEvaluator {
+    /** A let binding of a single variable, as sent by GhciSession. */
+    private static final Pattern LET = Pattern.compile("let ([a-z_][\\w']*) = (.*)", Pattern.DOTALL);
+
+    /** A binding of the result of an IO action, as sent by GhciSession. */
+    private static final Pattern BIND = Pattern.compile("([a-z_][\\w']*) <- .*", Pattern.DOTALL);
+
+    /** The directory holding the generated modules and their object code. */
+    private static final File CACHE_DIR = new File(System.getProperty("java.io.tmpdir"), "viskell-compiled");
+
+    /** The ghc executable used for compiling. */
+    private final String compiler;
+
+    /** The bound expressions of the let bindings sent to this evaluator, by name and in order of first upload. */
+    private Map<String, String> sources;
+
+    /** The commands of all bindings sent to this evaluator, by name, for sending again after loading modules. */
+    private Map<String, String> commands;
+
+    /** The modules that could not be compiled, so they are not tried again. */
+    private Set<String> failed;
+
+    /** Whether bindings were sent since the last modules were loaded. */
+    private boolean changed;
+
+    /** The module of every compiled binding that is loaded, by binding name. */
+    private Map<String, String> loaded;
+
+    /** The compiler process that is running, or null. */
+    private volatile Process compiling;
+
+    /** Whether the running compilation was stopped by an interrupt. */
+    private volatile boolean aborted;
+
+    /**
+     * Builds an evaluator that compiles with the ghc from the preferences.
+     * @throws HaskellException when ghci can not be started.
+     */
+    public CompiledEvaluator() throws HaskellException {
+        this(GhciSession.pickCompiler());
+    }
+
+    /**
+     * @param compiler The ghc executable to compile with, which should be the same version as ghci.
+     * @throws HaskellException when ghci can not be started.
+     */
+    public CompiledEvaluator(String compiler) throws HaskellException {
+        super();
+
+        if (!CACHE_DIR.isDirectory() && !CACHE_DIR.mkdirs()) {
+            throw new HaskellException("can not create " + CACHE_DIR);
+        }
+
+        // load object code instead of interpreting, and look for it in the cache
+        String dir = CACHE_DIR.getAbsolutePath();
+        this.eval(":set -fobject-code -O -odir " + dir + " -hidir " + dir);
+
+        this.compiler = compiler;
+        this.sources = new LinkedHashMap<>();
+        this.commands = new LinkedHashMap<>();
+        this.failed = new HashSet<>();
+        this.changed = false;
+        this.loaded = Collections.emptyMap();
+    }
+
+    @Override
+    protected List<String> prepare(String cmd) throws HaskellException {
+        if (this.sources == null) {
+            // still starting up
+            return ImmutableList.of(cmd);
+        }
+
+        Matcher let = LET.matcher(cmd);
+        if (let.matches()) {
+            this.sources.put(let.group(1), let.group(2));
+            this.commands.put(let.group(1), cmd);
+            this.changed = true;
+            return ImmutableList.of(cmd);
+        }
+
+        Matcher bind = BIND.matcher(cmd);
+        if (bind.matches()) {
+            // the result of an action only exists in ghci, so it can not be compiled
+            this.sources.remove(bind.group(1));
+            this.commands.put(bind.group(1), cmd);
+            this.changed = true;
+            return ImmutableList.of(cmd);
+        }
+
+        if (!this.changed || cmd.startsWith(":")) {
+            return ImmutableList.of(cmd);
+        }
+
+        this.changed = false;
+        Map<String, String> modules = this.compile();
+        if (modules.equals(this.loaded)) {
+            return ImmutableList.of(cmd);
+        }
+
+        // loading modules resets the context, so the usual modules have to be brought back,
+        // and the bindings that are not compiled have to be sent again
+        this.loaded = modules;
+        List<String> lines = new ArrayList<>();
+        List<String> paths = new ArrayList<>();
+        modules.values().forEach(module -> paths.add(new File(CACHE_DIR, module + ".hs").getAbsolutePath()));
+        lines.add(":load " + Joiner.on(" ").join(paths));
+        lines.add(":module + " + Joiner.on(" ").join(this.getModules()) + " " + Joiner.on(" ").join(modules.values()));
+        for (String name : GhciSession.dependencyOrder(this.commands)) {
+            if (!modules.containsKey(name)) {
+                lines.add(this.commands.get(name));
+            }
+        }
+        lines.add(cmd);
+        return lines;
+    }
+
+    /** Stops a running compilation, which leaves the binding being compiled interpreted. */
+    @Override
+    protected void abortPrepare() {
+        Process ghc = this.compiling;
+        if (ghc != null) {
+            this.aborted = true;
+            ghc.destroy();
+        }
+    }
+
+    /** @return the modules of the compiled bindings that are loaded in ghci. */
+    Collection<String> getLoadedModules() {
+        return this.loaded.values();
+    }
+
+    /**
+     * Compiles the module of every let binding, after the modules of the bindings it uses.
+     * A binding that uses a binding that is not compiled is not compiled either.
+     * @return The module of every binding that is compiled, by binding name.
+     */
+    private Map<String, String> compile() {
+        Map<String, String> modules = new LinkedHashMap<>();
+        for (String name : GhciSession.dependencyOrder(this.sources)) {
+            String expr = this.sources.get(name);
+
+            StringBuilder body = new StringBuilder();
+            for (String module : this.getModules()) {
+                body.append("import ").append(module).append('\n');
+            }
+
+            boolean ready = true;
+            for (String used : new LinkedHashSet<>(GhciSession.identifiers(expr))) {
+                if (used.equals(name) || !this.commands.containsKey(used)) {
+                    continue;
+                }
+
+                String module = modules.get(used);
+                if (module == null) {
+                    ready = false;
+                    break;
+                }
+                body.append("import ").append(module).append(" (").append(used).append(")\n");
+            }
+
+            if (ready) {
+                body.append(name).append(" = ").append(expr).append('\n');
+                String module = "Viskell_" + Hashing.sha256().hashString(body, UTF_8).toString().substring(0, 16);
+                if (this.compileModule(name, module, body.toString())) {
+                    modules.put(name, module);
+                }
+            }
+        }
+
+        return modules;
+    }
+
+    /**
+     * Writes a binding to a module and compiles it, unless it was compiled before.
+     * Evaluators share the cache, so the results are written to temporary files first,
+     * and then moved into place.
+     * @param name The name of the binding.
+     * @param module The name of the module.
+     * @param body The imports and the binding.
+     * @return whether the module is compiled.
+     */
+    private boolean compileModule(String name, String module, String body) {
+        File source = new File(CACHE_DIR, module + ".hs");
+        File object = new File(CACHE_DIR, module + ".o");
+        File iface = new File(CACHE_DIR, module + ".hi");
+        if (object.isFile()) {
+            return true;
+        }
+        if (this.failed.contains(module)) {
+            return false;
+        }
+
+        File tmpSource = null;
+        File tmpObject = null;
+        File tmpIface = null;
+        try {
+            if (!source.isFile()) {
+                String header = "{-# LANGUAGE NoMonomorphismRestriction #-}\nmodule " + module + " (" + name + ") where\n";
+                tmpSource = File.createTempFile(module, ".hs.tmp", CACHE_DIR);
+                Files.write(tmpSource.toPath(), (header + body).getBytes(UTF_8));
+                Files.move(tmpSource.toPath(), source.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }
+
+            tmpObject = File.createTempFile(module, ".o.tmp", CACHE_DIR);
+            tmpIface = File.createTempFile(module, ".hi.tmp", CACHE_DIR);
+            this.aborted = false;
+            Process ghc = new ProcessBuilder(this.getCompileCommand(source, tmpObject, tmpIface))
+                    .directory(CACHE_DIR)
+                    .redirectErrorStream(true)
+                    .start();
+            this.compiling = ghc;
+            String output = CharStreams.toString(new InputStreamReader(ghc.getInputStream(), UTF_8));
+            if (ghc.waitFor() != 0 && this.aborted) {
+                this.warn(String.format("compiling %s was interrupted, it stays interpreted for now", name));
+                // try again before the next command
+                this.changed = true;
+                return false;
+            } else if (ghc.exitValue() != 0) {
+                this.failed.add(module);
+                this.warn(String.format("compiling %s failed, it stays interpreted:%n%s", name, output.trim()));
+                return false;
+            }
+
+            // the object file is moved last, as its presence means the module is compiled
+            Files.move(tmpIface.toPath(), iface.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.move(tmpObject.toPath(), object.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            this.failed.add(module);
+            this.warn(String.format("compiling %s with %s failed, it stays interpreted: %s", name, this.compiler, e.getMessage()));
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            Process ghc = this.compiling;
+            this.compiling = null;
+            if (ghc != null) {
+                ghc.destroy();
+            }
+            for (File tmp : new File[] {tmpSource, tmpObject, tmpIface}) {
+                if (tmp != null && tmp.exists()) {
+                    tmp.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * @param source The generated module.
+     * @param object The file to write the object code to.
+     * @param iface The file to write the interface to.
+     * @return the command that compiles a generated module to object code, finding the modules it imports in the cache directory.
+     */
+    protected List<String> getCompileCommand(File source, File object, File iface) {
+        String dir = CACHE_DIR.getAbsolutePath();
+        return ImmutableList.of(this.compiler, "-O", "-c", "-fno-warn-overlapping-patterns", "-i" + dir,
+                "-odir", dir, "-hidir", dir, "-o", object.getAbsolutePath(), "-ohi", iface.getAbsolutePath(),
+                source.getAbsolutePath());
+    }
+}
@@ -0,0 +1,57 @@
+package nl.utwente.viskell.ghcj;
+
+/**
+ * Compact transfer of lists of doubles from ghci.
+ *
+ * Instead of showing every double in decimal, ghci writes the IEEE-754 bits
+ * of each of them as 16 hexadecimal digits, without separators. That is
+ * cheaper to produce, the same size for every value, and decodes straight
+ * into a primitive array without parsing decimal numbers or boxing.
+ */
+public final class DoubleEncoding {
+    /** The number of hexadecimal digits per double. */
+    private static final int DIGITS = 16;
+
+    /** A Haskell function that prints a list of doubles as hexadecimal bit patterns. */
+    private static final String ENCODER = "(\\xs -> putStrLn (concatMap (\\d -> "
+            + "let h = Numeric.showHex (GHC.Float.castDoubleToWord64 d) \"\" in replicate (16 - length h) '0' ++ h) xs))";
+
+    private DoubleEncoding() {
+    }
+
+    /**
+     * @param list A Haskell expression of type [Double].
+     * @return a ghci command that prints the list in encoded form.
+     */
+    public static String show(String list) {
+        return ENCODER + " (" + list + ")";
+    }
+
+    /**
+     * Decodes the output of a command made with show.
+     * @param text The output, possibly surrounded by whitespace.
+     * @return the doubles in the list.
+     * @throws NumberFormatException when the text is not an encoded list.
+     */
+    public static double[] read(String text) {
+        String hex = text.trim();
+        if (hex.length() % DIGITS != 0) {
+            throw new NumberFormatException("not a list of encoded doubles: " + hex);
+        }
+
+        double[] values = new double[hex.length() / DIGITS];
+        for (int i = 0, pos = 0; i < values.length; i++) {
+            long bits = 0;
+            for (int end = pos + DIGITS; pos < end; pos++) {
+                int digit = Character.digit(hex.charAt(pos), 16);
+                if (digit < 0) {
+                    throw new NumberFormatException("not a hexadecimal digit: " + hex.charAt(pos));
+                }
+                bits = (bits << 4) | digit;
+            }
+            values[i] = Double.longBitsToDouble(bits);
+        }
+
+        return values;
+    }
+}
@@ -0,0 +1,93 @@
+package nl.utwente.viskell.ghcj;
+
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * A single command queued in a GhciSession, together with the future that receives its result.
+ */
+final class EvalRequest {
+    /** The command to send to the evaluator. */
+    final String expr;
+
+    /** The future that gets completed with the (trimmed) response. */
+    final SettableFuture<String> future;
+
+    /** The worker this request has to run on, or null if any worker may take it. */
+    final EvalWorker pinned;
+
+    /** The key under which the result is cached, or null if the result should not be cached. */
+    final String cacheKey;
+
+    /** The name of the binding this request uploads, or null if it is not a push. */
+    final String binding;
+
+    /** The listener that gets the output as it arrives, or null if only the whole result is wanted. */
+    final OutputListener listener;
+
+    /** The number of bytes of output the listener gets at most. */
+    final long limit;
+
+    /** How urgently the result is needed. Guarded by the lock of the session. */
+    GhciSession.Priority priority;
+
+    /** The number of callers waiting for the result of this request. Guarded by the lock of the session. */
+    int waiters;
+
+    /** The worker that is evaluating this request, or null while queued. Guarded by the lock of the session. */
+    EvalWorker runningOn;
+
+    /** Whether the computation of this request was interrupted, its response is then meaningless. */
+    volatile boolean interrupted;
+
+    /** The pending deadline of the evaluation, or null when not armed. Guarded by the lock of the session. */
+    ScheduledFuture<?> deadline;
+
+    /**
+     * @param expr The command to send to the evaluator.
+     * @param pinned The worker this request has to run on, or null if any worker may take it.
+     * @param cacheKey The key under which the result is cached, or null if the result should not be cached.
+     * @param binding The name of the binding this request uploads, or null if it is not a push.
+     */
+    EvalRequest(String expr, EvalWorker pinned, String cacheKey, String binding) {
+        this(expr, pinned, cacheKey, binding, null, 0);
+    }
+
+    /**
+     * Creates a request whose output is streamed to a listener. Its result is the part of the output the listener got.
+     * @param expr The command to send to the evaluator.
+     * @param pinned The worker this request has to run on, or null if any worker may take it.
+     * @param cacheKey The key under which the complete output is cached, or null if it should not be cached.
+     * @param listener The listener that gets the output as it arrives.
+     * @param limit The number of bytes of output the listener gets at most.
+     */
+    EvalRequest(String expr, EvalWorker pinned, String cacheKey, OutputListener listener, long limit) {
+        this(expr, pinned, cacheKey, null, listener, limit);
+    }
+
+    private EvalRequest(String expr, EvalWorker pinned, String cacheKey, String binding, OutputListener listener, long limit) {
+        this.expr = expr;
+        this.future = SettableFuture.create();
+        this.pinned = pinned;
+        this.cacheKey = cacheKey;
+        this.binding = binding;
+        this.listener = listener;
+        this.limit = limit;
+        this.priority = GhciSession.Priority.Interactive;
+        this.waiters = 0;
+        this.runningOn = null;
+        this.interrupted = false;
+        this.deadline = null;
+    }
+
+    /** @return whether this request may be stolen by another worker than the one it was queued at. */
+    boolean isStealable() {
+        return this.pinned == null;
+    }
+
+    @Override
+    public String toString() {
+        return "EvalRequest{" + this.expr + "}";
+    }
+}
@@ -0,0 +1,337 @@
+package nl.utwente.viskell.ghcj;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One evaluator process in the pool of a GhciSession, running on its own thread.
+ *
+ * Each worker has its own deque of requests. A worker that runs out of work
+ * steals requests that are not pinned from the other workers in the pool.
+ *
+ * Queued requests are sent to the evaluator in batches, so the cost of a
+ * round-trip to ghci is paid once per batch instead of once per request.
+ *
+ * When its evaluator dies, or gets killed because it hung, the worker starts
+ * a new one and replays the bindings that were pushed to the old one.
+ */
+final class EvalWorker implements Runnable {
+    /** The last line ghci prints when it abandons an evaluation because of an interrupt signal. */
+    private static final String INTERRUPTED = "Interrupted.";
+
+    /** The session this worker belongs to. */
+    private final GhciSession session;
+
+    /** The position of this worker in the pool. */
+    final int index;
+
+    /** The requests queued at this worker, guarded by the lock of the session. */
+    final Deque<EvalRequest> deque;
+
+    /** The thread on which this worker runs. */
+    private final Thread thread;
+
+    /** The request whose response is awaited, guarded by the lock of the session. */
+    EvalRequest current;
+
+    /**
+     * Held while sending an interrupt signal, and while changing the current request, so a signal
+     * always reaches the request it was meant for. Taken before the lock of the session, never while holding it.
+     */
+    final Object signalGuard = new Object();
+
+    /** The evaluator owned by this worker, only evaluates on the worker thread. */
+    private volatile Evaluator ghci;
+
+    /** The let commands of the bindings pushed to this worker, by name and in order of first upload. Synchronized. */
+    private final Map<String, String> bindings;
+
+    /**
+     * @param session The session this worker belongs to.
+     * @param index The position of this worker in the pool.
+     */
+    EvalWorker(GhciSession session, int index) {
+        this.session = session;
+        this.index = index;
+        this.deque = new ArrayDeque<>();
+        this.bindings = Collections.synchronizedMap(new LinkedHashMap<>());
+        this.thread = new Thread(this, "ghci-worker-" + index);
+        this.thread.setDaemon(true);
+    }
+
+    /** Starts the worker thread, which begins by starting its evaluator. */
+    void start() {
+        this.thread.start();
+    }
+
+    /**
+     * Waits until the worker thread has finished, or the timeout has passed.
+     * @param millis The maximum time to wait.
+     */
+    void join(long millis) throws InterruptedException {
+        this.thread.join(millis);
+    }
+
+    @Override
+    public void run() {
+        try {
+            this.ghci = this.session.createEvaluator();
+        } catch (HaskellException e) {
+            this.session.workerStarted(e);
+            return;
+        }
+
+        this.session.workerStarted(null);
+
+        try {
+            List<EvalRequest> batch;
+            while ((batch = this.session.takeWork(this)) != null) {
+                this.evaluate(batch);
+            }
+        } catch (InterruptedException e) {
+            // Asked to stop while waiting for work.
+        } finally {
+            try {
+                this.ghci.close();
+            } catch (HaskellException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Interrupts a request that this worker has taken. Only the request ghci is
+     * working on gets a signal, the others are skipped when their turn comes.
+     * The signal is sent by the session later on, so this does not wait for it.
+     * Must be called with the lock of the session held, so the request can not finish meanwhile.
+     * @param request A request taken by this worker.
+     */
+    void interrupt(EvalRequest request) {
+        request.interrupted = true;
+        if (request == this.current) {
+            this.session.signal(this, request);
+        }
+    }
+
+    /** Sends an interrupt signal to the evaluator of this worker, which may take a while. */
+    void signal() {
+        Evaluator evaluator = this.ghci;
+        if (evaluator != null) {
+            evaluator.interrupt();
+        }
+    }
+
+    /**
+     * Stops replaying a binding when the evaluator gets restarted, because it is no longer used.
+     * @param name The name of the binding.
+     */
+    void forget(String name) {
+        this.bindings.remove(name);
+    }
+
+    /**
+     * Kills the evaluator of this worker, which makes the worker start a new one.
+     * Must be called with the lock of the session held.
+     */
+    void kill() {
+        Evaluator evaluator = this.ghci;
+        if (evaluator != null) {
+            evaluator.kill();
+        }
+    }
+
+    /**
+     * Sends a batch of requests to the evaluator in one go, then completes their futures one by one.
+     * When a request gets interrupted the responses to the rest of the batch are not to be trusted,
+     * so those requests are given back to the session to be evaluated again.
+     */
+    private void evaluate(List<EvalRequest> batch) {
+        // requests cancelled since they were taken are replaced by a trivial command
+        boolean[] skipped = new boolean[batch.size()];
+        List<String> cmds = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            skipped[i] = batch.get(i).interrupted;
+            cmds.add(skipped[i] ? "()" : batch.get(i).expr);
+        }
+
+        // the first request is armed before sending, as preparing the batch, such as compiling bindings, may take a while
+        if (!skipped[0]) {
+            this.session.arm(this, batch.get(0));
+        }
+
+        HaskellException sendFailure = null;
+        try {
+            this.ghci.send(cmds);
+        } catch (HaskellException e) {
+            sendFailure = e;
+        }
+        this.ghci.takeWarnings().forEach(this.session::logError);
+
+        int done = 0;
+        boolean recover = false;
+        if (sendFailure != null) {
+            // the evaluator is gone, the first request takes the blame and the rest is tried again
+            if (!skipped[0]) {
+                this.session.disarm(this, batch.get(0));
+            }
+            if (!batch.get(0).interrupted) {
+                this.complete(batch.get(0), null, sendFailure);
+            }
+            done = 1;
+            recover = true;
+        }
+
+        while (done < batch.size() && !recover) {
+            EvalRequest request = batch.get(done);
+            String result = null;
+            HaskellException failure = null;
+            boolean truncated = false;
+
+            if (!skipped[done] && done > 0) {
+                this.session.arm(this, request);
+            }
+            try {
+                if (request.listener != null && !skipped[done]) {
+                    StringBuilder output = new StringBuilder();
+                    truncated = !this.receive(request, output);
+                    result = output.toString().trim();
+                } else {
+                    result = this.ghci.receive().trim();
+                }
+            } catch (HaskellException e) {
+                failure = e;
+            }
+            if (truncated) {
+                // stop ghci from producing the rest of the output
+                this.ghci.interrupt();
+            }
+            if (!skipped[done]) {
+                // From here on the request can only be interrupted by cancelling it, which makes its result irrelevant.
+                this.session.disarm(this, request);
+            }
+
+            if (!request.interrupted) {
+                if (truncated) {
+                    // only part of the output, so not to be cached
+                    request.listener.onTruncated();
+                    request.future.set(result);
+                } else {
+                    this.complete(request, result, failure);
+                }
+            }
+
+            recover = (request.interrupted && !skipped[done]) || truncated || !this.ghci.isAlive();
+            done++;
+        }
+
+        if (recover) {
+            this.recover();
+        }
+
+        this.session.finished(this, batch.subList(0, done), batch.subList(done, batch.size()));
+    }
+
+    /**
+     * Streams the output of a request to its listener, until the output is complete or goes over the limit.
+     * @param output Collects the output that was streamed.
+     * @return whether all of the output was read.
+     */
+    private boolean receive(EvalRequest request, StringBuilder output) throws HaskellException {
+        return this.ghci.receive(chunk -> {
+            if (!request.interrupted) {
+                output.append(chunk);
+                request.listener.onOutput(chunk);
+            }
+        }, request.limit);
+    }
+
+    /**
+     * Completes the future of a request with its result or failure.
+     * A result that ghci cut short with an interrupt counts as a failure, and is never cached.
+     */
+    private void complete(EvalRequest request, String result, HaskellException failure) {
+        if (failure == null && isInterrupted(result)) {
+            failure = new HaskellException("evaluation was interrupted");
+        }
+
+        if (failure != null) {
+            request.future.setException(failure);
+            this.session.logError(failure.getMessage());
+            return;
+        }
+
+        if (request.cacheKey != null) {
+            // cache before completing, so anyone waiting for this result will find it cached
+            this.session.cacheResult(request.cacheKey, result);
+        }
+        if (request.binding != null) {
+            this.bindings.put(request.binding, request.expr);
+        }
+        request.future.set(result);
+    }
+
+    /**
+     * @param result The response of ghci to a request.
+     * @return whether ghci abandoned the request because of an interrupt signal.
+     */
+    static boolean isInterrupted(String result) {
+        return result.equals(INTERRUPTED) || result.endsWith("\n" + INTERRUPTED);
+    }
+
+    /** Gets the evaluator back in step after an interrupt, or replaces it if it is no longer running. */
+    private void recover() {
+        if (this.ghci.isAlive()) {
+            try {
+                this.ghci.resync();
+                return;
+            } catch (HaskellException e) {
+                this.session.logError(e.getMessage());
+            }
+        }
+
+        this.restart();
+    }
+
+    /**
+     * Replaces the evaluator by a new one and uploads the bindings of the old one again.
+     * Bindings are replayed after the bindings they use, and one that fails does not keep the others out.
+     */
+    private void restart() {
+        try {
+            this.ghci.close();
+        } catch (HaskellException e) {
+            // It is gone either way.
+        }
+        this.ghci.kill();
+
+        try {
+            this.ghci = this.session.createEvaluator();
+        } catch (HaskellException e) {
+            this.session.logError(e.getMessage());
+            return;
+        }
+
+        Map<String, String> replay;
+        synchronized (this.bindings) {
+            replay = new LinkedHashMap<>(this.bindings);
+        }
+
+        for (String name : GhciSession.dependencyOrder(replay)) {
+            try {
+                this.ghci.eval(replay.get(name));
+            } catch (HaskellException e) {
+                this.session.logError(e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "EvalWorker{" + this.index + ", " + this.ghci + "}";
+    }
+}
@@ -1,15 +1,20 @@
 package nl.utwente.viskell.ghcj;
 
 import com.google.common.base.Joiner;
-import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Evaluator class. Haskell expressions (strings) go in, results (strings)
@@ -33,6 +38,21 @@ abstract public class Evaluator {
     /** Raw output stream from the application to ghci. */
     protected OutputStream out;
 
+    /** Reader that splits the output of ghci into responses. */
+    private ResponseReader reader;
+
+    /** For every command sent without a result yet, the number of preamble responses before its own. */
+    private final Deque<Integer> preambles = new ArrayDeque<>();
+
+    /** The ghci process, used for sending it signals. */
+    private Process process;
+
+    /** The number of markers sent to resynchronize with ghci. */
+    private int syncCount;
+
+    /** Problems that did not make a command fail, waiting to be reported. */
+    private final List<String> warnings = new ArrayList<>();
+
     /** A newline character. */
     protected final String NL;
 
@@ -41,21 +61,21 @@ abstract public class Evaluator {
 
         try {
             /* The ghci process to use. */
-            Process process = new ProcessBuilder(getCommand())
+            this.process = new ProcessBuilder(getCommand())
                     .redirectErrorStream(true)
                     .start();
 
-            this.in = process.getInputStream();
-            this.out = process.getOutputStream();
+            this.in = this.process.getInputStream();
+            this.out = this.process.getOutputStream();
         } catch (IOException io) {
             // Try an alternative ghci command if available.
             List<String> altCommand = this.getAltCommand();
             if (! altCommand.isEmpty()) {
                 try {
-                    Process process = new ProcessBuilder(altCommand).redirectErrorStream(true).start();
+                    this.process = new ProcessBuilder(altCommand).redirectErrorStream(true).start();
 
-                    this.in = process.getInputStream();
-                    this.out = process.getOutputStream();
+                    this.in = this.process.getInputStream();
+                    this.out = this.process.getOutputStream();
                 } catch (IOException io2) {
                     throw new HaskellException(io2);
                 }
@@ -64,6 +84,8 @@ abstract public class Evaluator {
             }
         }
 
+        this.reader = new ResponseReader(this.in);
+
         /* Make it so that GHCi prints a null byte to its standard output when
            it expects input. By setting the prompt to a zero byte, GHCi will
            print a zero byte whenever it expects the user (that's us) to enter
@@ -101,48 +123,219 @@ abstract public class Evaluator {
      * @throws HaskellException when ghci is not ready to evaluate, or expression can not be computed.
      */
     public final String eval(final String cmd) throws HaskellException {
-        StringBuilder responseBuilder = new StringBuilder();
+        this.send(ImmutableList.of(cmd));
+        return this.receive();
+    }
 
+    /**
+     * Sends a number of commands to ghci in one go, without waiting for their results.
+     * Each result has to be picked up with receive, in the same order.
+     *
+     * The commands should fit in the pipe buffer of the operating system, or
+     * writing them may block until ghci has produced enough output.
+     * @param cmds The (complete) Haskell commands.
+     * @throws HaskellException when ghci can not be reached.
+     */
+    public final void send(final List<String> cmds) throws HaskellException {
         try {
-            // Send the expression to ghci.
-            this.out.write(cmd.getBytes(UTF_8));
-            this.out.write('\n');
+            for (String cmd : cmds) {
+                List<String> lines = this.prepare(cmd);
+                for (String line : lines) {
+                    this.out.write(line.getBytes(UTF_8));
+                    this.out.write('\n');
+                }
+                this.preambles.addLast(lines.size() - 1);
+            }
             this.out.flush();
+        } catch (IOException e) {
+            throw new HaskellException(e);
+        }
+    }
+
+    /**
+     * Waits for the result of the oldest command sent that has no result yet.
+     * @return the result, including newline, as a string.
+     * @throws HaskellException when ghci can not be reached, or the command could not be computed.
+     */
+    public final String receive() throws HaskellException {
+        try {
+            HaskellException preambleFailure = this.skipPreambles();
 
-            // Wait for the sentinel.
-            int input;
-            while ((input = this.in.read()) != 0) {
-                responseBuilder.append((char) input);
+            // Wait for the sentinel, the reader checks for hints that something went wrong.
+            String result = this.reader.read();
+            if (preambleFailure != null) {
+                throw preambleFailure;
             }
+            return result;
         } catch (IOException e) {
             throw new HaskellException(e);
         }
+    }
 
-        String response = responseBuilder.toString();
+    /**
+     * Like receive, but hands the output of the command over in pieces as it arrives.
+     * When the output goes over the limit, the rest of it is not read: the command should
+     * then be interrupted and the evaluator resynchronized before it is used again.
+     * @param consumer Gets the pieces of output, in order.
+     * @param limit The number of bytes of output after which to stop reading.
+     * @return whether all of the output was read.
+     * @throws HaskellException when ghci can not be reached, or the command could not be computed.
+     */
+    public final boolean receive(Consumer<String> consumer, long limit) throws HaskellException {
+        try {
+            HaskellException preambleFailure = this.skipPreambles();
 
-        // Check for hints that something went wrong
-        // To do: Make this better
+            boolean whole = this.reader.stream(consumer, limit);
+            if (whole && preambleFailure != null) {
+                throw preambleFailure;
+            }
+            return whole;
+        } catch (IOException e) {
+            throw new HaskellException(e);
+        }
+    }
 
-        String exceptionHeader = "*** Exception: ";
-        String parseErrorHeader = "<interactive>";
+    /**
+     * Reads the responses to the preamble of the oldest command sent that has no result yet.
+     * @return The first failure of the preamble, which explains best why the command itself fails, or null.
+     */
+    private HaskellException skipPreambles() throws IOException {
+        HaskellException preambleFailure = null;
+        Integer preamble = this.preambles.pollFirst();
+        for (int i = 0; preamble != null && i < preamble; i++) {
+            try {
+                this.reader.read();
+            } catch (HaskellException e) {
+                preambleFailure = preambleFailure != null ? preambleFailure : e;
+            }
+        }
 
-        List<String> lines = Splitter.on(this.NL).splitToList(response);
-        for (int i = 0; i < lines.size(); i++) {
-            String line = lines.get(i);
+        return preambleFailure;
+    }
 
-            if (line.startsWith(exceptionHeader)) {
-                String msg = line.substring(exceptionHeader.length());
-                throw new HaskellException(msg);
-            }
+    /**
+     * Gives a subclass the chance to precede a command by other ghci commands, for instance to load a module.
+     * Only the response to the command itself is returned, those to the preamble are skipped.
+     *
+     * Note that this is already called from the constructor of Evaluator, before the subclass is initialized.
+     * @param cmd The command that is about to be sent.
+     * @return The commands to send, ending with the command itself.
+     * @throws HaskellException when preparing the command fails.
+     */
+    protected List<String> prepare(String cmd) throws HaskellException {
+        return ImmutableList.of(cmd);
+    }
+
+    /**
+     * Stops work that prepare is doing for a command, for when that command gets interrupted.
+     * Called from another thread than the one using eval.
+     */
+    protected void abortPrepare() {
+        // Nothing to stop by default.
+    }
+
+    /**
+     * Records a problem that did not make a command fail, such as falling back to a slower way of evaluating it.
+     * @param message The description of the problem.
+     */
+    protected final void warn(String message) {
+        this.warnings.add(message);
+    }
+
+    /** @return the problems recorded since the last call, which are then forgotten. */
+    public final List<String> takeWarnings() {
+        List<String> taken = new ArrayList<>(this.warnings);
+        this.warnings.clear();
+        return taken;
+    }
+
+    /**
+     * Interrupts the running computation by sending SIGINT to ghci, as if the user pressed Ctrl-C.
+     * Ghci then abandons the computation, prints "Interrupted." and shows its prompt again.
+     * Work that prepare is doing is stopped as well.
+     *
+     * May be called from another thread than the one using eval.
+     * @return whether the signal was sent, which is not supported on every platform.
+     */
+    public final boolean interrupt() {
+        this.abortPrepare();
+        long pid = processId(this.process);
+        if (pid < 0) {
+            return false;
+        }
+
+        try {
+            Process kill = new ProcessBuilder("kill", "-INT", Long.toString(pid)).start();
+            return kill.waitFor() == 0;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /** Forcibly ends the ghci process, for when it does not react to interrupts. */
+    public final void kill() {
+        this.abortPrepare();
+        this.process.destroyForcibly();
+    }
 
-            if (line.startsWith(parseErrorHeader)) {
-                List<String> sublines = lines.subList(i, lines.size());
-                String msg = Joiner.on(this.NL).join(sublines);
-                throw new HaskellException(msg);
+    /** @return whether the ghci process is still running. */
+    public final boolean isAlive() {
+        return this.process.isAlive();
+    }
+
+    /**
+     * Gets back in step with ghci after an interrupt. An interrupt that arrives
+     * just after a computation has finished can make ghci print an extra prompt,
+     * so this sends a marker and skips all responses up to its echo.
+     * @throws HaskellException when communicating with ghci fails.
+     */
+    public final void resync() throws HaskellException {
+        this.syncCount++;
+        this.preambles.clear();
+        String marker = Integer.toString(1000000 + this.syncCount);
+
+        try {
+            this.out.write(marker.getBytes(UTF_8));
+            this.out.write('\n');
+            this.out.flush();
+
+            while (true) {
+                try {
+                    if (this.reader.read().trim().equals(marker)) {
+                        return;
+                    }
+                } catch (HaskellException e) {
+                    // Left over from the interrupted computation.
+                }
             }
+        } catch (IOException e) {
+            throw new HaskellException(e);
+        }
+    }
+
+    /**
+     * Finds the operating system id of a process. Process.pid() only exists
+     * from Java 9 on, before that the id is a private field on Unix systems.
+     * @return The process id, or -1 if it can not be determined.
+     */
+    private static long processId(Process process) {
+        try {
+            Method pid = Process.class.getMethod("pid");
+            return ((Number) pid.invoke(process)).longValue();
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Not available before Java 9.
         }
 
-        return response;
+        try {
+            Field pid = process.getClass().getDeclaredField("pid");
+            pid.setAccessible(true);
+            return pid.getLong(process);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return -1;
+        }
     }
 
     /** @return the command and arguments for the subprocess. */
@@ -1,66 +1,299 @@
 package nl.utwente.viskell.ghcj;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.EvictingQueue;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
-import com.google.common.util.concurrent.AbstractExecutionThreadService;
+import com.google.common.collect.MapMaker;
+import com.google.common.collect.Queues;
+import com.google.common.util.concurrent.AbstractIdleService;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
-import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import nl.utwente.viskell.haskell.env.Environment;
 import nl.utwente.viskell.haskell.env.HaskellCatalog;
+import nl.utwente.viskell.haskell.expr.ConstantBinder;
+import nl.utwente.viskell.haskell.expr.ConstructorBinder;
 import nl.utwente.viskell.haskell.expr.Expression;
+import nl.utwente.viskell.haskell.expr.LetExpression;
 import nl.utwente.viskell.haskell.type.Type;
 import nl.utwente.viskell.ui.Main;
 
-import java.io.IOException;
-import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Objects;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.prefs.Preferences;
 
 /**
- * A conversation with an instance of ghci.
+ * A conversation with a pool of ghci instances.
+ *
+ * Every worker in the pool owns one evaluator process. Independent requests
+ * are spread over the workers and idle workers steal queued work from busy
+ * ones, so a slow expression does not hold up every other block. Requests
+ * that use a binding uploaded with push are pinned to the worker holding it,
+ * bindings that are needed together are uploaded to the same worker.
+ *
+ * Results of pure expressions are kept in a bounded cache, so re-evaluating
+ * an unchanged expression does not involve ghci at all.
+ *
+ * A request can be made on behalf of a requester, such as a block. A newer
+ * request for the same requester supersedes the older one, which is then
+ * dropped from the queue or interrupted if it is already being evaluated.
+ * Cancelling the future of a request has the same effect.
+ *
+ * Identical requests that are pending at the same time are evaluated once,
+ * their callers share the result. Evaluation is only cancelled when all of
+ * them have cancelled.
+ *
+ * Every evaluation has a deadline. A request that runs too long fails with a
+ * HaskellException and gets interrupted; if ghci does not respond to that,
+ * its process is killed and the worker starts a fresh one, into which it
+ * replays the bindings uploaded with push.
+ *
+ * Workers send the requests queued at them to their evaluator in batches,
+ * and then pick up the responses in order.
+ *
+ * The output of large values can be streamed to a listener as it arrives,
+ * up to a budget after which the evaluation is stopped.
+ *
+ * Requests carry a priority. Interactive requests are taken before any
+ * off-screen or background work, which waits until they are drained.
+ *
+ * In incremental mode the bindings of an expression graph are uploaded as
+ * top-level ghci bindings, and uploaded again only when they change, so only
+ * the body of the graph needs to be evaluated for every pull. The least
+ * recently used bindings are forgotten once there are too many of them.
  *
  * Public methods are safe to use from multiple threads.
  */
-public class GhciSession extends AbstractExecutionThreadService {
-    /** Work queue. */
-    private ArrayBlockingQueue<AbstractMap.SimpleEntry<String, SettableFuture<String>>> queue;
+public class GhciSession extends AbstractIdleService {
+    /** The workers of the pool, each with its own evaluator. */
+    private final List<EvalWorker> workers;
+
+    /** Guards the work deques of all workers, the binding homes and the running flag. */
+    private final ReentrantLock lock;
+
+    /** Signalled whenever new work is queued or the session stops. */
+    private final Condition workAvailable;
+
+    /** The worker holding each binding uploaded with push, by name. */
+    private final Map<String, EvalWorker> bindingHomes;
+
+    /** The ghci command that made each binding in bindingHomes, for uploading it to another worker. */
+    private final Map<String, String> bindingCommands;
+
+    /** The requests that release a pruned binding and have not finished yet, by binding name. Guarded by the lock. */
+    private final Map<String, EvalRequest> releases;
 
-    /** Stuff this into the work queue to stop running. */
-    private final static String POISON = null;
+    /** The future of the latest request made for each requester, weakly keyed so requesters can be collected. */
+    private final Map<Object, ListenableFuture<String>> latest;
 
-    /** The evaluator this GhciSession will communicate with. */
-    private Evaluator ghci;
+    /** The pending requests that callers of identical requests can share, by evaluator and expression. Guarded by the lock. */
+    private final Map<String, EvalRequest> inFlight;
+
+    /** The bindings uploaded by pullIncremental, by name and least recently used first. Guarded by the lock. */
+    private final Map<String, Upload> uploads;
+
+    /** The number of bindings uploaded by pullIncremental, used to order the uploads. Guarded by the lock. */
+    private long uploadCount;
+
+    /** Whether expression graphs are uploaded binding by binding. */
+    private final boolean incremental;
+
+    /** Whether the workers should keep taking work. */
+    private boolean running;
+
+    /** Counts down once for every worker that finished starting its evaluator. */
+    private final CountDownLatch started;
+
+    /** The first failure encountered while starting the evaluators, if any. */
+    private volatile HaskellException startFailure;
+
+    /** The backend every evaluator in this session uses. */
+    private final Backend backend;
 
     /** Gets filled with a HaskellCatalog instance when ghci is ready. */
     private static HaskellCatalog catalog;
 
+    /** Results of earlier pure evaluations, keyed on the backend and the canonical expression. */
+    private final Cache<String, String> results;
+
+    /** The number of results to keep in the cache. */
+    private final static int CACHE_SIZE = 256;
+
     /** Gets filled with up to LOG_SIZE errors. */
-    private EvictingQueue<String> errors;
+    private final Queue<String> errors;
 
     /** The number of errors to keep. */
     private final static int LOG_SIZE = 16;
 
+    /** Watches the deadlines of the running evaluations. */
+    private final ScheduledThreadPoolExecutor watchdog;
+
+    /** The time in milliseconds an evaluation may take before it is interrupted. */
+    private volatile long timeout;
+
+    /** The default time in milliseconds an evaluation may take. */
+    private final static long DEFAULT_TIMEOUT = 10000;
+
+    /** The time in milliseconds ghci gets to react to an interrupt before it is killed. */
+    private final static long KILL_DELAY = 2000;
+
+    /** The number of bindings uploaded by pullIncremental that are kept track of, least recently used ones are dropped. */
+    private final static int UPLOAD_LIMIT = 1024;
+
+    /** The maximum number of requests sent to an evaluator in one go. */
+    private final static int BATCH_SIZE = 32;
+
+    /** The maximum total length of the commands in a batch, so they fit in the pipe buffer. */
+    private final static int BATCH_CHARS = 4000;
+
+    /** The time in milliseconds to wait for each worker to finish when shutting down. */
+    private final static long SHUTDOWN_WAIT = 1000;
+
+    /** A binding as it was uploaded to ghci. */
+    private final static class Upload {
+        /** The Haskell text of the bound expression. */
+        final String text;
+
+        /** The worker the binding was uploaded to. */
+        final EvalWorker home;
+
+        /** The value of uploadCount at the time of the upload. */
+        final long version;
+
+        Upload(String text, EvalWorker home, long version) {
+            this.text = text;
+            this.home = home;
+            this.version = version;
+        }
+    }
+
+    /**
+     * Hands the output of a shared streamed request to the listeners of all of its callers.
+     * A caller that joins late first gets the output so far.
+     */
+    private final static class Fanout implements OutputListener {
+        /** The listeners of the callers that are still waiting. */
+        private final List<OutputListener> listeners = new ArrayList<>();
+
+        /** The output so far. */
+        private final StringBuilder output = new StringBuilder();
+
+        /** Whether the output went over its budget. */
+        private boolean truncated = false;
+
+        synchronized void add(OutputListener listener) {
+            if (this.output.length() > 0) {
+                listener.onOutput(this.output.toString());
+            }
+            if (this.truncated) {
+                listener.onTruncated();
+            }
+            this.listeners.add(listener);
+        }
+
+        synchronized void remove(OutputListener listener) {
+            this.listeners.remove(listener);
+        }
+
+        @Override
+        public synchronized void onOutput(String chunk) {
+            this.output.append(chunk);
+            this.listeners.forEach(listener -> listener.onOutput(chunk));
+        }
+
+        @Override
+        public synchronized void onTruncated() {
+            this.truncated = true;
+            this.listeners.forEach(OutputListener::onTruncated);
+        }
+    }
+
     public enum Backend {
         GHCi,
         Clash,
+        Compiled,
+    }
+
+    /** How urgently the result of a request is needed, most urgent first. */
+    public enum Priority {
+        /** Needed for something the user is looking at. */
+        Interactive,
+        /** Needed for something that is out of view. */
+        OffScreen,
+        /** Only needed ahead of time, if there is nothing else to do. */
+        Background,
     }
 
     /**
-     * Builds a new communication session with ghci.
+     * Builds a new communication session with ghci, using the pool size from the preferences.
      *
      * Starting the backend is delayed until startAsync() is called.
      */
     public GhciSession() {
+        this(pickPoolSize());
+    }
+
+    /**
+     * Builds a new communication session with a pool of ghci instances.
+     *
+     * Starting the backend is delayed until startAsync() is called.
+     * @param poolSize The number of evaluators to start.
+     */
+    public GhciSession(int poolSize) {
         super();
 
-        queue = new ArrayBlockingQueue<>(1024);
-        errors = EvictingQueue.create(LOG_SIZE);
-        switch (pickBackend()) {
+        this.lock = new ReentrantLock();
+        this.workAvailable = this.lock.newCondition();
+        this.bindingHomes = new HashMap<>();
+        this.bindingCommands = new HashMap<>();
+        this.releases = new HashMap<>();
+        this.latest = new MapMaker().weakKeys().makeMap();
+        this.uploads = new LinkedHashMap<>(16, 0.75f, true);
+        this.inFlight = new HashMap<>();
+        this.uploadCount = 0;
+        this.running = true;
+        this.errors = Queues.synchronizedQueue(EvictingQueue.create(LOG_SIZE));
+        this.backend = pickBackend();
+        // the compiled backend only compiles uploaded bindings, so it needs incremental mode
+        this.incremental = pickIncremental() || this.backend == Backend.Compiled;
+        this.results = CacheBuilder.newBuilder().maximumSize(CACHE_SIZE).recordStats().build();
+        this.timeout = DEFAULT_TIMEOUT;
+        this.watchdog = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "ghci-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.watchdog.setRemoveOnCancelPolicy(true);
+
+        this.workers = new ArrayList<>();
+        for (int i = 0; i < Math.max(1, poolSize); i++) {
+            this.workers.add(new EvalWorker(this, i));
+        }
+        this.started = new CountDownLatch(this.workers.size());
+
+        switch (this.backend) {
             case Clash: 
                 this.catalog = new HaskellCatalog("/catalog/clash.xml");
                 break;
@@ -70,27 +303,615 @@ public class GhciSession extends AbstractExecutionThreadService {
         }
     }
 
-    @Override
-    protected void run() throws Exception {
-        while (true) {
-            AbstractMap.SimpleEntry<String, SettableFuture<String>> x = queue.take();
+    /**
+     * Takes the next batch of requests for a worker. Requests of the highest priority go first:
+     * as many of those from the worker's own deque as fit in a batch, in the order they were queued,
+     * or else a single request stolen from the other workers if they have more urgent work.
+     * Blocks until work is available.
+     * @param worker The worker asking for work.
+     * @return The next batch of requests, or null if the session is stopping.
+     */
+    List<EvalRequest> takeWork(EvalWorker worker) throws InterruptedException {
+        this.lock.lock();
+        try {
+            while (this.running) {
+                List<EvalRequest> batch = new ArrayList<>();
+                Priority own = mostUrgent(worker.deque);
+                EvalRequest stolen = this.steal(worker, own);
 
-            String expr = x.getKey();
-            SettableFuture<String> future = x.getValue();
+                if (stolen != null) {
+                    batch.add(stolen);
+                } else if (own != null) {
+                    int size = 0;
+                    for (Iterator<EvalRequest> iter = worker.deque.iterator(); iter.hasNext() && batch.size() < BATCH_SIZE;) {
+                        EvalRequest request = iter.next();
+                        if (request.priority != own) {
+                            continue;
+                        }
+                        if (!batch.isEmpty() && size + request.expr.length() >= BATCH_CHARS) {
+                            break;
+                        }
 
-            if (Objects.equals(expr, POISON)) {
-                // Something wants us to quit - do so.
-                break;
+                        iter.remove();
+                        batch.add(request);
+                        size += request.expr.length();
+                    }
+                }
+
+                if (!batch.isEmpty()) {
+                    batch.forEach(taken -> taken.runningOn = worker);
+                    return batch;
+                }
+
+                this.workAvailable.await();
+            }
+
+            return null;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /** @return the highest priority among the queued requests, or null if there are none. */
+    private static Priority mostUrgent(Iterable<EvalRequest> requests) {
+        Priority best = null;
+        for (EvalRequest request : requests) {
+            if (best == null || request.priority.compareTo(best) < 0) {
+                best = request.priority;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * Removes the most urgent, and of those the most recently queued, stealable request from the other workers.
+     * Must be called with the lock held.
+     * @param thief The worker looking for work.
+     * @param own The highest priority of the work the thief already has, or null if it has none.
+     * @return The stolen request, or null if there was nothing more urgent to steal.
+     */
+    private EvalRequest steal(EvalWorker thief, Priority own) {
+        EvalRequest loot = null;
+        EvalWorker victim = null;
+
+        int size = this.workers.size();
+        for (int i = 1; i < size; i++) {
+            EvalWorker other = this.workers.get((thief.index + i) % size);
+            for (Iterator<EvalRequest> iter = other.deque.descendingIterator(); iter.hasNext();) {
+                EvalRequest request = iter.next();
+                boolean better = loot == null ? own == null || request.priority.compareTo(own) < 0
+                                              : request.priority.compareTo(loot.priority) < 0;
+                if (request.isStealable() && better) {
+                    loot = request;
+                    victim = other;
+                }
+            }
+        }
+
+        if (loot != null) {
+            victim.deque.remove(loot);
+        }
+
+        return loot;
+    }
+
+    /**
+     * Queues a request at the worker it is pinned to, or else at the least loaded worker.
+     * @param request The request to queue.
+     * @return The future of the request.
+     */
+    private ListenableFuture<String> submit(EvalRequest request) {
+        request.future.addListener(() -> {
+            if (request.future.isCancelled()) {
+                this.withdraw(request);
+            }
+        }, MoreExecutors.directExecutor());
+
+        this.lock.lock();
+        try {
+            if (!this.running) {
+                request.future.setException(new HaskellException("ghci session is not running"));
             } else {
-                try {
-                    String result = this.ghci.eval(expr);
-                    future.set(result.trim());
-                } catch (HaskellException e) {
-                    future.setException(e);
-                    errors.add(e.getMessage());
+                EvalWorker target = request.pinned != null ? request.pinned : this.leastLoaded();
+                target.deque.addLast(request);
+                this.workAvailable.signalAll();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+
+        return request.future;
+    }
+
+    /**
+     * Gives the caller a future for the result of a command, sharing the evaluation
+     * with a pending request for the same command on the same evaluator if there is one.
+     * @param expr The command to evaluate.
+     * @param pinned The worker the command has to run on, or null if any worker may take it.
+     * @param cacheKey The key under which the result is cached, or null if the result should not be cached.
+     * @param requester The object the result is for, or null.
+     * @param priority How urgently the result is needed, a shared request gets the most urgent priority of its callers.
+     * @return A future of the caller's own, cancelling it only cancels the evaluation if no one else waits for it.
+     */
+    private ListenableFuture<String> share(String expr, EvalWorker pinned, String cacheKey, Object requester, Priority priority) {
+        return this.share(expr, pinned, cacheKey, requester, priority, null, 0);
+    }
+
+    /**
+     * Like share(String, EvalWorker, String, Object, Priority), but streams the output to a listener.
+     * Streamed requests are only shared with streamed requests for the same command and limit.
+     * @param listener The listener that gets the output as it arrives, or null to get the whole result at once.
+     * @param limit The number of bytes of output after which evaluation is stopped.
+     */
+    private ListenableFuture<String> share(String expr, EvalWorker pinned, String cacheKey, Object requester, Priority priority,
+                                           OutputListener listener, long limit) {
+        String key = (pinned != null ? pinned.index : "*") + ":" + (listener != null ? "~" + limit + ":" : "")
+                + (cacheKey != null ? cacheKey : expr);
+        ListenableFuture<String> view;
+
+        this.lock.lock();
+        try {
+            EvalRequest request = this.inFlight.get(key);
+            if (request == null) {
+                EvalRequest fresh = listener != null ? new EvalRequest(expr, pinned, cacheKey, new Fanout(), limit)
+                                                     : new EvalRequest(expr, pinned, cacheKey, null);
+                fresh.priority = priority;
+                fresh.future.addListener(() -> this.leaveFlight(key, fresh), MoreExecutors.directExecutor());
+                this.inFlight.put(key, fresh);
+                this.submit(fresh);
+                request = fresh;
+            }
+
+            EvalRequest shared = request;
+            if (priority.compareTo(shared.priority) < 0) {
+                shared.priority = priority;
+            }
+            shared.waiters++;
+            if (listener != null) {
+                ((Fanout) shared.listener).add(listener);
+            }
+            view = Futures.nonCancellationPropagating(shared.future);
+            view.addListener(() -> {
+                if (view.isCancelled()) {
+                    if (listener != null) {
+                        ((Fanout) shared.listener).remove(listener);
+                    }
+                    this.release(shared);
+                }
+            }, MoreExecutors.directExecutor());
+        } finally {
+            this.lock.unlock();
+        }
+
+        this.supersede(requester, view);
+        return view;
+    }
+
+    /** Stops sharing a request that has completed. */
+    private void leaveFlight(String key, EvalRequest request) {
+        this.lock.lock();
+        try {
+            this.inFlight.remove(key, request);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /** Stops sharing the requests pinned to a worker, because a binding they may use is uploaded to it again. */
+    private void leaveFlight(EvalWorker worker) {
+        this.inFlight.values().removeIf(request -> request.pinned == worker);
+    }
+
+    /** Cancels a shared request once no caller is waiting for it anymore. */
+    private void release(EvalRequest request) {
+        boolean abandoned;
+        this.lock.lock();
+        try {
+            request.waiters--;
+            abandoned = request.waiters == 0;
+        } finally {
+            this.lock.unlock();
+        }
+
+        if (abandoned) {
+            request.future.cancel(true);
+        }
+    }
+
+    /**
+     * Cancels the previous request of a requester, and remembers its new request.
+     * @param requester The object the requests are made for, or null to do nothing.
+     * @param future The future of the new request, or null if the requester got its result without one.
+     */
+    private void supersede(Object requester, ListenableFuture<String> future) {
+        if (requester == null) {
+            return;
+        }
+
+        ListenableFuture<String> previous;
+        this.lock.lock();
+        try {
+            previous = future != null ? this.latest.put(requester, future) : this.latest.remove(requester);
+        } finally {
+            this.lock.unlock();
+        }
+
+        if (future != null) {
+            future.addListener(() -> this.latest.remove(requester, future), MoreExecutors.directExecutor());
+        }
+        if (previous != null) {
+            previous.cancel(true);
+        }
+    }
+
+    /**
+     * Takes a cancelled request out of the queue, or interrupts its evaluation if it already started.
+     * @param request The cancelled request.
+     */
+    private void withdraw(EvalRequest request) {
+        this.lock.lock();
+        try {
+            if (request.runningOn != null) {
+                request.runningOn.interrupt(request);
+            } else {
+                for (EvalWorker worker : this.workers) {
+                    if (worker.deque.remove(request)) {
+                        break;
+                    }
+                }
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Sends an interrupt signal for a request from the watchdog thread, so that the caller
+     * does not have to wait for it, nor hold the lock meanwhile. The signal is only sent
+     * if the worker is still evaluating the request by then, and the worker can not move on
+     * to another request until it has been sent, so a late signal never hits the wrong request.
+     * @param worker The worker evaluating the request.
+     * @param request The interrupted request.
+     */
+    void signal(EvalWorker worker, EvalRequest request) {
+        try {
+            this.watchdog.execute(() -> {
+                synchronized (worker.signalGuard) {
+                    if (worker.current == request) {
+                        worker.signal();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The session is stopping, so there is nothing left to interrupt.
+        }
+    }
+
+    /**
+     * Fails a request that ran past its deadline and interrupts it.
+     * Kills the evaluator if it is still busy with the request after a while.
+     */
+    private void timedOut(EvalWorker worker, EvalRequest request) {
+        this.lock.lock();
+        try {
+            if (request.deadline == null) {
+                return;
+            }
+
+            request.future.setException(new HaskellException(
+                    String.format("evaluation took longer than %.1f seconds", this.timeout / 1000.0)));
+            worker.interrupt(request);
+            request.deadline = this.watchdog.schedule(() -> this.kill(worker, request),
+                    KILL_DELAY, TimeUnit.MILLISECONDS);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /** Kills the evaluator of a worker that did not react to the interrupt of a request. */
+    private void kill(EvalWorker worker, EvalRequest request) {
+        this.lock.lock();
+        try {
+            if (request.deadline != null) {
+                request.deadline = null;
+                worker.kill();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Called by a worker when it starts waiting for the response to a request, which starts its deadline.
+     * A request that got cancelled while waiting in the batch is interrupted right away.
+     * @param worker The worker that took the request.
+     * @param request The request whose response is awaited.
+     */
+    void arm(EvalWorker worker, EvalRequest request) {
+        synchronized (worker.signalGuard) {
+            this.lock.lock();
+            try {
+                worker.current = request;
+                request.deadline = this.watchdog.schedule(() -> this.timedOut(worker, request),
+                        this.timeout, TimeUnit.MILLISECONDS);
+                if (request.interrupted) {
+                    worker.interrupt(request);
+                }
+            } finally {
+                this.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Called by a worker as soon as ghci has responded to a request, so its deadline no longer applies.
+     * @param worker The worker that took the request.
+     * @param request The request that got a response.
+     */
+    void disarm(EvalWorker worker, EvalRequest request) {
+        synchronized (worker.signalGuard) {
+            this.lock.lock();
+            try {
+                worker.current = null;
+                if (request.deadline != null) {
+                    request.deadline.cancel(false);
+                    request.deadline = null;
+                }
+            } finally {
+                this.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Sets how long evaluations may take, which applies to evaluations started from now on.
+     * @param millis The time in milliseconds.
+     */
+    public void setTimeout(long millis) {
+        this.timeout = millis;
+    }
+
+    /**
+     * Called by a worker after evaluating a batch of requests.
+     * @param worker The worker that took the batch.
+     * @param done The requests that were evaluated, or interrupted.
+     * @param retry The requests whose responses could not be trusted, these are queued again.
+     */
+    void finished(EvalWorker worker, List<EvalRequest> done, List<EvalRequest> retry) {
+        this.lock.lock();
+        try {
+            for (EvalRequest request : done) {
+                request.runningOn = null;
+            }
+
+            for (int i = retry.size() - 1; i >= 0; i--) {
+                EvalRequest request = retry.get(i);
+                request.runningOn = null;
+                if (request.interrupted) {
+                    // cancelled meanwhile
+                } else if (this.running) {
+                    worker.deque.addFirst(request);
+                } else {
+                    request.future.cancel(false);
+                }
+            }
+
+            if (!retry.isEmpty()) {
+                this.workAvailable.signalAll();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /** @return The worker with the fewest queued requests. Must be called with the lock held. */
+    private EvalWorker leastLoaded() {
+        EvalWorker best = this.workers.get(0);
+        for (EvalWorker worker : this.workers) {
+            if (worker.deque.size() < best.deque.size()) {
+                best = worker;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * Finds the worker holding the bindings that are used in the command.
+     * Must be called with the lock held.
+     * @param expr The command to scan for the names of pushed bindings.
+     * @return The worker the command has to run on, or null if it may run anywhere.
+     */
+    private EvalWorker findPin(String expr) {
+        return this.findPin(expr, null);
+    }
+
+    /**
+     * Finds the worker holding the bindings that are used in the command. If they are spread over
+     * several workers, the worker holding most of them gets the others uploaded to it as well,
+     * so the command can run there. Must be called with the lock held.
+     * @param expr The command to scan for the names of pushed bindings.
+     * @param defined The name the command binds, which is not looked for, or null.
+     * @return The worker the command has to run on, or null if it may run anywhere.
+     */
+    private EvalWorker findPin(String expr, String defined) {
+        if (this.bindingHomes.isEmpty()) {
+            return null;
+        }
+
+        Map<String, EvalWorker> used = new LinkedHashMap<>();
+        Map<EvalWorker, Integer> counts = new LinkedHashMap<>();
+        for (String name : identifiers(expr)) {
+            EvalWorker home = this.bindingHomes.get(name);
+            if (home != null && !name.equals(defined) && used.put(name, home) == null) {
+                counts.merge(home, 1, Integer::sum);
+            }
+        }
+
+        EvalWorker best = null;
+        for (Map.Entry<EvalWorker, Integer> count : counts.entrySet()) {
+            if (best == null || count.getValue() > counts.get(best)) {
+                best = count.getKey();
+            }
+        }
+
+        if (counts.size() > 1) {
+            this.colocate(used.keySet(), best);
+        }
+
+        return best;
+    }
+
+    /**
+     * Uploads bindings, and the bindings they use, to a worker that does not hold them yet.
+     * Bindings made with bind start over with a fresh result of their action there.
+     * Must be called with the lock held.
+     * @param names The names of the bindings that have to be on the worker.
+     * @param target The worker to upload them to.
+     */
+    private void colocate(Collection<String> names, EvalWorker target) {
+        Map<String, String> moving = new LinkedHashMap<>();
+        Deque<String> todo = new ArrayDeque<>(names);
+        while (!todo.isEmpty()) {
+            String name = todo.pop();
+            String cmd = this.bindingCommands.get(name);
+            if (cmd == null || this.bindingHomes.get(name) == target || moving.containsKey(name)) {
+                continue;
+            }
+
+            moving.put(name, cmd);
+            for (String used : identifiers(cmd)) {
+                if (this.bindingHomes.containsKey(used)) {
+                    todo.add(used);
                 }
             }
         }
+
+        for (String name : dependencyOrder(moving)) {
+            this.bindingHomes.put(name, target);
+            this.submit(new EvalRequest(moving.get(name), target, null, name));
+        }
+        this.leaveFlight(target);
+    }
+
+    /**
+     * Splits Haskell code into the words that could be identifiers.
+     * @param expr The Haskell code.
+     * @return The candidate identifiers, in order of occurrence.
+     */
+    static List<String> identifiers(String expr) {
+        List<String> names = new ArrayList<>();
+        int n = expr.length();
+        int i = 0;
+        while (i < n) {
+            if (!isIdentifierPart(expr.charAt(i))) {
+                i++;
+                continue;
+            }
+
+            int start = i;
+            while (i < n && isIdentifierPart(expr.charAt(i))) {
+                i++;
+            }
+            names.add(expr.substring(start, i));
+        }
+
+        return names;
+    }
+
+    /**
+     * Orders bindings so that every binding comes after the bindings it uses, as ghci needs them in scope.
+     * Apart from that the order of the map is kept. Bindings that use each other are left in map order.
+     * @param bindings The Haskell code of every binding, by name.
+     * @return The names of the bindings, in an order in which they can be uploaded.
+     */
+    static List<String> dependencyOrder(Map<String, String> bindings) {
+        List<String> order = new ArrayList<>(bindings.size());
+        Set<String> visited = new HashSet<>();
+        for (String name : bindings.keySet()) {
+            visitDependencies(name, bindings, visited, order);
+        }
+
+        return order;
+    }
+
+    /** Adds a binding to the order after the bindings it uses, unless it was visited before. */
+    private static void visitDependencies(String name, Map<String, String> bindings, Set<String> visited, List<String> order) {
+        if (!visited.add(name)) {
+            return;
+        }
+
+        for (String used : identifiers(bindings.get(name))) {
+            if (bindings.containsKey(used)) {
+                visitDependencies(used, bindings, visited, order);
+            }
+        }
+
+        order.add(name);
+    }
+
+    /**
+     * Normalizes the unique suffixes that Binder.getUniqueName adds to variable names,
+     * by numbering them in the order of first occurrence.
+     * Expressions that only differ in the identity of their binders get the same canonical form.
+     * @param expr The Haskell expression.
+     * @return The canonical form of the expression.
+     */
+    static String canonicalize(String expr) {
+        StringBuilder out = new StringBuilder(expr.length());
+        Map<String, String> renames = new HashMap<>();
+
+        int n = expr.length();
+        int i = 0;
+        while (i < n) {
+            char c = expr.charAt(i);
+            boolean afterIdentifier = i > 0 && isIdentifierPart(expr.charAt(i - 1));
+
+            if (c == '"' || (c == '\'' && !afterIdentifier)) {
+                // Copy string and character literals verbatim.
+                int j = i + 1;
+                while (j < n && expr.charAt(j) != c) {
+                    j += expr.charAt(j) == '\\' ? 2 : 1;
+                }
+                j = Math.min(j + 1, n);
+                out.append(expr, i, j);
+                i = j;
+            } else if (c == '_' && afterIdentifier && expr.startsWith("__", i)) {
+                int j = i + 2;
+                while (j < n && Character.digit(expr.charAt(j), 16) >= 0) {
+                    j++;
+                }
+
+                if (j > i + 2 && (j == n || !isIdentifierPart(expr.charAt(j)))) {
+                    String suffix = expr.substring(i + 2, j);
+                    String rename = renames.get(suffix);
+                    if (rename == null) {
+                        rename = Integer.toString(renames.size());
+                        renames.put(suffix, rename);
+                    }
+                    out.append("__").append(rename);
+                } else {
+                    out.append(expr, i, j);
+                }
+                i = j;
+            } else {
+                out.append(c);
+                i++;
+            }
+        }
+
+        return out.toString();
+    }
+
+    /** @return the hit and miss statistics of the result cache. */
+    public CacheStats getCacheStats() {
+        return this.results.stats();
+    }
+
+    /** @return whether the character can be part of a Haskell identifier. */
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '\'';
     }
 
     /**
@@ -99,8 +920,46 @@ public class GhciSession extends AbstractExecutionThreadService {
      * @param func The actual function.
      */
     public ListenableFuture<String> push(final String name, final Expression func) {
-        String let = String.format("let %s = %s", name, func.toHaskell());
-        return pullRaw(let);
+        return this.bindAt(name, String.format("let %s = %s", name, func.toHaskell()));
+    }
+
+    /**
+     * Runs an IO action in ghci and binds its result to a name, for state that lives in the evaluator.
+     * Like a binding uploaded with push, later requests that use the name run on the same evaluator.
+     * If that evaluator has to be restarted, the action runs again, so the state starts over.
+     * @param name The name to bind the result to.
+     * @param action The IO action to run.
+     */
+    public ListenableFuture<String> bind(final String name, final String action) {
+        return this.bindAt(name, String.format("%s <- %s", name, action));
+    }
+
+    /**
+     * Uploads a binding to the worker that holds the bindings it uses or the previous version.
+     * @param name The name of the binding.
+     * @param cmd The ghci command that binds it.
+     */
+    private ListenableFuture<String> bindAt(final String name, final String cmd) {
+        EvalWorker home;
+        this.lock.lock();
+        try {
+            // A binding joins the bindings it uses, or else stays with the worker that holds its previous version.
+            home = this.findPin(cmd, name);
+            if (home == null) {
+                home = this.bindingHomes.get(name);
+            }
+            if (home == null) {
+                home = this.leastLoaded();
+            }
+            this.bindingHomes.put(name, home);
+            this.bindingCommands.put(name, cmd);
+            this.cancelRelease(name, home);
+            this.leaveFlight(home);
+        } finally {
+            this.lock.unlock();
+        }
+
+        return this.submit(new EvalRequest(cmd, home, null, name));
     }
 
     /**
@@ -109,26 +968,355 @@ public class GhciSession extends AbstractExecutionThreadService {
      * @return The result of the evaluation.
      */
     public ListenableFuture<String> pull(final Expression expr) {
-        return pullRaw(expr.toHaskell());
+        return pullCached(expr.toHaskell(), null);
+    }
+
+    /**
+     * Returns the result of evaluating a Haskell expression, superseding the previous request of the requester.
+     * @param expr The expression to evaluate.
+     * @param requester The object the result is for, usually a block.
+     * @return The result of the evaluation.
+     */
+    public ListenableFuture<String> pull(final Expression expr, final Object requester) {
+        return pullCached(expr.toHaskell(), requester, Priority.Interactive);
+    }
+
+    /**
+     * Like pull(Expression, Object), with a hint on how urgently the result is needed.
+     * @param expr The expression to evaluate.
+     * @param requester The object the result is for, usually a block.
+     * @param priority How urgently the result is needed.
+     * @return The result of the evaluation.
+     */
+    public ListenableFuture<String> pull(final Expression expr, final Object requester, final Priority priority) {
+        return pullCached(expr.toHaskell(), requester, priority);
+    }
+
+    /**
+     * Returns the result of evaluating a pure Haskell expression, reusing the
+     * result of an earlier evaluation of the same expression when possible.
+     * Expressions that use a binding uploaded with push are never cached.
+     * @param expr The string representation of the expression to evaluate.
+     * @return The result of the evaluation.
+     */
+    public ListenableFuture<String> pullCached(final String expr) {
+        return pullCached(expr, null);
+    }
+
+    /**
+     * Like pullCached(String), but supersedes the previous request of the requester.
+     * @param expr The string representation of the expression to evaluate.
+     * @param requester The object the result is for, or null.
+     * @return The result of the evaluation.
+     */
+    public ListenableFuture<String> pullCached(final String expr, final Object requester) {
+        return pullCached(expr, requester, Priority.Interactive);
+    }
+
+    /**
+     * Like pullCached(String, Object), with a hint on how urgently the result is needed.
+     * @param expr The string representation of the expression to evaluate.
+     * @param requester The object the result is for, or null.
+     * @param priority How urgently the result is needed.
+     * @return The result of the evaluation.
+     */
+    public ListenableFuture<String> pullCached(final String expr, final Object requester, final Priority priority) {
+        EvalWorker pinned;
+        this.lock.lock();
+        try {
+            pinned = this.findPin(expr);
+        } finally {
+            this.lock.unlock();
+        }
+
+        if (pinned != null) {
+            return this.share(expr, pinned, null, requester, priority);
+        }
+
+        String key = this.backend.name() + ':' + canonicalize(expr);
+        String cached = this.results.getIfPresent(key);
+        if (cached != null) {
+            this.supersede(requester, null);
+            return Futures.immediateFuture(cached);
+        }
+
+        // Failures might be temporary, so only successful results get cached.
+        return this.share(expr, null, key, requester, priority);
+    }
+
+    /**
+     * Returns the result of evaluating an expression in the scope of the bindings of an expression graph.
+     * Each binding is uploaded as a top-level ghci binding, unless the same binding is already
+     * uploaded and none of the bindings it uses has been uploaded again since.
+     * All bindings of the graph are kept together on one evaluator.
+     *
+     * Graphs with pattern bindings are evaluated as a whole.
+     * @param graph The expression graph, usually obtained with getFullExpr.
+     * @param body The Haskell expression to evaluate, in scope of the bindings of the graph.
+     * @param requester The object the result is for, or null.
+     * @return The result of the evaluation.
+     */
+    public ListenableFuture<String> pullIncremental(final LetExpression graph, final String body, final Object requester) {
+        return pullIncremental(graph, body, requester, Priority.Interactive);
+    }
+
+    /**
+     * Like pullIncremental(LetExpression, String, Object), with a hint on how urgently the result is needed.
+     * The bindings are always uploaded as interactive requests, since later requests may depend on them.
+     * @param graph The expression graph, usually obtained with getFullExpr.
+     * @param body The Haskell expression to evaluate, in scope of the bindings of the graph.
+     * @param requester The object the result is for, or null.
+     * @param priority How urgently the result is needed.
+     * @return The result of the evaluation.
+     */
+    public ListenableFuture<String> pullIncremental(final LetExpression graph, final String body, final Object requester, final Priority priority) {
+        return pullIncremental(graph, body, requester, priority, null, 0);
+    }
+
+    /**
+     * Like pullIncremental(LetExpression, String, Object, Priority), but streams the output to a listener, see pullStream.
+     * @param graph The expression graph, usually obtained with getFullExpr.
+     * @param body The Haskell expression to evaluate, in scope of the bindings of the graph.
+     * @param requester The object the result is for, or null.
+     * @param priority How urgently the result is needed.
+     * @param listener The listener that gets the output as it arrives, or null to get the whole result at once.
+     * @param limit The number of bytes of output after which evaluation is stopped.
+     * @return The output the listener got.
+     */
+    public ListenableFuture<String> pullIncremental(final LetExpression graph, final String body, final Object requester,
+                                                    final Priority priority, final OutputListener listener, final long limit) {
+        Map<String, String> bindings = new LinkedHashMap<>();
+        Lists.reverse(new ArrayList<>(graph.getBindings().entrySet())).forEach(b -> bindings.put(b.getKey().getUniqueName(), b.getValue().toHaskell()));
+
+        if (graph.getBindings().keySet().stream().anyMatch(b -> b instanceof ConstantBinder || b instanceof ConstructorBinder)) {
+            StringBuilder whole = new StringBuilder("(let {");
+            bindings.forEach((name, text) -> whole.append(name).append(" = ").append(text).append("; "));
+            whole.append("} in ").append(body).append(')');
+            String expr = whole.toString();
+            return listener == null ? this.pullCached(expr, requester, priority) : this.pullStream(expr, requester, priority, listener, limit);
+        }
+
+        // a binding has to be uploaded after the bindings it uses, so it can see their latest versions
+        List<String> order = dependencyOrder(bindings);
+
+        this.lock.lock();
+        try {
+            EvalWorker home = null;
+            for (String name : order) {
+                Upload upload = this.uploads.get(name);
+                if (upload != null) {
+                    home = upload.home;
+                    break;
+                }
+            }
+            if (home == null) {
+                home = this.leastLoaded();
+            }
+
+            for (String name : order) {
+                String text = bindings.get(name);
+                Upload previous = this.uploads.get(name);
+                if (previous == null || previous.home != home || !previous.text.equals(text) || this.usesNewer(text, previous.version)) {
+                    this.upload(name, text, home);
+                }
+            }
+            this.prune(bindings.keySet());
+
+            // submitted with the lock held, so no other pull can get between the uploads and the body
+            return this.share(body, home, null, requester, priority, listener, limit);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Evaluates a Haskell expression, handing its output to a listener piece by piece as ghci produces it.
+     * Once the listener has had limit bytes the evaluation is stopped, so large or infinite values do not
+     * have to be computed or held in memory in full. Complete output of pure expressions is cached as with pullCached,
+     * a cached result is returned at once without calling the listener. Identical streamed requests that are pending
+     * at the same time are evaluated once, a listener that joins late first gets the output so far.
+     * @param expr The string representation of the expression to evaluate.
+     * @param requester The object the result is for, or null.
+     * @param priority How urgently the result is needed.
+     * @param listener The listener that gets the output as it arrives.
+     * @param limit The number of bytes of output after which evaluation is stopped.
+     * @return The output the listener got.
+     */
+    public ListenableFuture<String> pullStream(final String expr, final Object requester, final Priority priority,
+                                               final OutputListener listener, final long limit) {
+        EvalWorker pinned;
+        this.lock.lock();
+        try {
+            pinned = this.findPin(expr);
+        } finally {
+            this.lock.unlock();
+        }
+
+        if (pinned != null) {
+            return this.share(expr, pinned, null, requester, priority, listener, limit);
+        }
+
+        String key = this.backend.name() + ':' + canonicalize(expr);
+        String cached = this.results.getIfPresent(key);
+        if (cached != null) {
+            this.supersede(requester, null);
+            return Futures.immediateFuture(cached);
+        }
+
+        return this.share(expr, null, key, requester, priority, listener, limit);
+    }
+
+    /**
+     * Uploads a binding for pullIncremental. Must be called with the lock held.
+     * @param name The unique name of the binding.
+     * @param text The Haskell text of the bound expression.
+     * @param home The worker to upload the binding to.
+     */
+    private void upload(String name, String text, EvalWorker home) {
+        String let = String.format("let %s = %s", name, text);
+        this.uploadCount++;
+        Upload upload = new Upload(text, home, this.uploadCount);
+        this.uploads.put(name, upload);
+        this.bindingHomes.put(name, home);
+        this.bindingCommands.put(name, let);
+        this.cancelRelease(name, home);
+        this.leaveFlight(home);
+
+        Futures.addCallback(this.submit(new EvalRequest(let, home, null, name)), new FutureCallback<String>() {
+            public void onSuccess(String result) {
+                // The binding is in place.
+            }
+
+            public void onFailure(Throwable t) {
+                // try again next time
+                lock.lock();
+                try {
+                    uploads.remove(name, upload);
+                } finally {
+                    lock.unlock();
+                }
+            }
+        });
+    }
+
+    /**
+     * Forgets the least recently used bindings uploaded by pullIncremental once there are too many of them,
+     * and lets their evaluators drop the values. Must be called with the lock held.
+     * @param keep The names of the bindings that are in use right now.
+     */
+    private void prune(Set<String> keep) {
+        if (this.uploads.size() <= UPLOAD_LIMIT) {
+            return;
+        }
+
+        for (Iterator<Map.Entry<String, Upload>> iter = this.uploads.entrySet().iterator(); iter.hasNext() && this.uploads.size() > UPLOAD_LIMIT * 3 / 4;) {
+            Map.Entry<String, Upload> entry = iter.next();
+            String name = entry.getKey();
+            if (keep.contains(name)) {
+                continue;
+            }
+
+            iter.remove();
+            EvalWorker home = entry.getValue().home;
+            this.bindingHomes.remove(name);
+            this.bindingCommands.remove(name);
+            home.forget(name);
+
+            EvalRequest release = new EvalRequest(String.format("let %s = ()", name), home, null, null);
+            release.priority = Priority.Background;
+            this.releases.put(name, release);
+            this.submit(release).addListener(() -> {
+                this.lock.lock();
+                try {
+                    this.releases.remove(name, release);
+                } finally {
+                    this.lock.unlock();
+                }
+            }, MoreExecutors.directExecutor());
+        }
+    }
+
+    /**
+     * Cancels the release of a pruned binding that is uploaded again before the release ran.
+     * A release has a low priority, so it would otherwise overwrite the new upload on the same worker.
+     * Must be called with the lock held.
+     * @param name The name of the binding.
+     * @param home The worker the binding is uploaded to.
+     */
+    private void cancelRelease(String name, EvalWorker home) {
+        EvalRequest release = this.releases.get(name);
+        if (release != null && release.pinned == home) {
+            this.releases.remove(name);
+            release.future.cancel(false);
+        }
+    }
+
+    /**
+     * Checks whether Haskell code uses a binding that was uploaded after a given moment.
+     * Must be called with the lock held.
+     * @param text The Haskell code.
+     * @param version The value of uploadCount at the moment.
+     * @return Whether an uploaded binding used in the code is newer.
+     */
+    private boolean usesNewer(String text, long version) {
+        for (String name : identifiers(text)) {
+            Upload upload = this.uploads.get(name);
+            if (upload != null && upload.version > version) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /** @return whether expression graphs should be evaluated with pullIncremental. */
+    public boolean isIncremental() {
+        return this.incremental;
+    }
+
+    /** Stores the result of a pure evaluation, called from the worker threads. */
+    void cacheResult(String key, String result) {
+        this.results.put(key, result);
     }
 
     /**
      * Returns the result of evaluating something in ghci.
+     * Identical commands that are pending at the same time are evaluated only once.
      * Should only be used for testing purposes or for a known valid Haskell expression. 
      * @param expr The string representation of the expression to evaluate.
      * @return The result of the evaluation.
      */
     public ListenableFuture<String> pullRaw(final String expr) {
-        SettableFuture<String> result = SettableFuture.create();
-        AbstractMap.SimpleEntry<String, SettableFuture<String>> entry = new AbstractMap.SimpleEntry<>(expr, result);
+        return pullRaw(expr, null);
+    }
 
+    /**
+     * Like pullRaw(String), but supersedes the previous request of the requester.
+     * @param expr The string representation of the expression to evaluate.
+     * @param requester The object the result is for, or null.
+     * @return The result of the evaluation.
+     */
+    public ListenableFuture<String> pullRaw(final String expr, final Object requester) {
+        return pullRaw(expr, requester, Priority.Interactive);
+    }
+
+    /**
+     * Like pullRaw(String, Object), with a hint on how urgently the result is needed.
+     * @param expr The string representation of the expression to evaluate.
+     * @param requester The object the result is for, or null.
+     * @param priority How urgently the result is needed.
+     * @return The result of the evaluation.
+     */
+    public ListenableFuture<String> pullRaw(final String expr, final Object requester, final Priority priority) {
+        EvalWorker pinned;
+        this.lock.lock();
         try {
-            queue.put(entry);
-        } catch (InterruptedException e) {
-            result.setException(e);
+            pinned = this.findPin(expr);
+        } finally {
+            this.lock.unlock();
         }
 
-        return result;
+        return this.share(expr, pinned, null, requester, priority);
     }
     
     /**
@@ -152,43 +1340,83 @@ public class GhciSession extends AbstractExecutionThreadService {
         }
     }
 
-    @Override
-    protected void triggerShutdown() {
-        queue.offer(new AbstractMap.SimpleEntry<>(POISON, null));
+    /** Adds a runtime error to the log, called from the worker threads. */
+    void logError(String message) {
+        this.errors.add(message);
     }
 
     /**
      * @return a String representation of this GhciSession.
      */
     public String toString() {
-        return "GhciSession{" + this.ghci + "}";
+        return "GhciSession{" + this.workers + "}";
     }
 
+    /** Stops all workers, which close their evaluators, and cancels the requests that are still queued. */
     @Override
-    public void shutDown() throws IOException {
+    public void shutDown() throws InterruptedException {
+        List<EvalRequest> queued = new ArrayList<>();
+        this.lock.lock();
         try {
-            this.ghci.close();
-            this.ghci = null;
-        } catch (HaskellException e) {
-            e.printStackTrace();
+            this.running = false;
+            this.workAvailable.signalAll();
+            for (EvalWorker worker : this.workers) {
+                queued.addAll(worker.deque);
+                worker.deque.clear();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+
+        queued.forEach(request -> request.future.cancel(false));
+        this.watchdog.shutdownNow();
+
+        // a worker stuck in a long evaluation is a daemon thread, so it will not keep the application alive
+        for (EvalWorker worker : this.workers) {
+            worker.join(SHUTDOWN_WAIT);
         }
     }
 
-    /** Build a new Evaluator, closing the old one if it exists. */
+    /** Starts all workers and waits until every one of them has its evaluator running. */
     @Override
-    public void startUp() throws HaskellException {
-        if (this.ghci != null) {
-            this.ghci.close();
+    public void startUp() throws HaskellException, InterruptedException {
+        this.workers.forEach(EvalWorker::start);
+        this.started.await();
+
+        if (this.startFailure != null) {
+            this.shutDown();
+            throw this.startFailure;
         }
+    }
 
-        this.ghci = evaluatorFactory(pickBackend());
+    /**
+     * Called by every worker once it is done starting its evaluator.
+     * @param failure The reason the evaluator could not be started, or null if it is running.
+     */
+    void workerStarted(HaskellException failure) {
+        if (failure != null && this.startFailure == null) {
+            this.startFailure = failure;
+        }
+
+        this.started.countDown();
+    }
+
+    /** Build a new Evaluator for the backend of this session, called from the worker threads. */
+    Evaluator createEvaluator() throws HaskellException {
+        Evaluator evaluator = evaluatorFactory(this.backend);
+        if (this.incremental) {
+            // the evaluated values of uploaded bindings are worth keeping
+            evaluator.eval(":unset +r");
+        }
+        return evaluator;
     }
 
     /** Build the Evaluator that corresponds to the given Backend identifier. */
-    private Evaluator evaluatorFactory(Backend evaluator) throws HaskellException {
+    private static Evaluator evaluatorFactory(Backend evaluator) throws HaskellException {
         switch (evaluator) {
             case GHCi:  return new GhciEvaluator();
             case Clash: return new ClashEvaluator();
+            case Compiled: return new CompiledEvaluator();
             default:    return new GhciEvaluator();
         }
     }
@@ -200,6 +1428,29 @@ public class GhciSession extends AbstractExecutionThreadService {
         return Backend.valueOf(name);
     }
 
+    /** @return the number of evaluators in the pool according to the preferences. */
+    public static int pickPoolSize() {
+        Preferences prefs = Preferences.userNodeForPackage(Main.class);
+        return prefs.getInt("ghciPoolSize", defaultPoolSize());
+    }
+
+    /** @return the ghc executable the compiled backend uses according to the preferences. */
+    public static String pickCompiler() {
+        Preferences prefs = Preferences.userNodeForPackage(Main.class);
+        return prefs.get("ghcPath", "ghc");
+    }
+
+    /** @return whether incremental upload of bindings is enabled in the preferences. */
+    public static boolean pickIncremental() {
+        Preferences prefs = Preferences.userNodeForPackage(Main.class);
+        return prefs.getBoolean("incrementalUpload", false);
+    }
+
+    /** @return a pool size that leaves some cores for the user interface. */
+    public static int defaultPoolSize() {
+        return Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
     /** @return the available backend identifiers. */
     public static List<Backend> getBackends() {
         return Lists.newArrayList(EnumSet.allOf(Backend.class));
@@ -217,6 +1468,8 @@ public class GhciSession extends AbstractExecutionThreadService {
 
     /** @return an immutable list of the last LOG_SIZE runtime errors. */
     public List<String> getErrors() {
-        return ImmutableList.copyOf(errors);
+        synchronized (this.errors) {
+            return ImmutableList.copyOf(this.errors);
+        }
     }
 }
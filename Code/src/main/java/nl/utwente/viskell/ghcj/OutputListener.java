@@ -0,0 +1,18 @@
+package nl.utwente.viskell.ghcj;
+
+/**
+ * Receives the output of a streamed evaluation piece by piece, as ghci produces it.
+ *
+ * The methods are called on the thread of the evaluator, and never after the
+ * evaluation has been cancelled or superseded.
+ */
+public interface OutputListener {
+    /**
+     * Called for every piece of output, in order.
+     * @param chunk The next piece of output, which may end halfway a line.
+     */
+    void onOutput(String chunk);
+
+    /** Called when the output went over its budget, the rest of it is dropped. */
+    void onTruncated();
+}
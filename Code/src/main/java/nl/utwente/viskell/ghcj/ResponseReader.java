@@ -0,0 +1,271 @@
+package nl.utwente.viskell.ghcj;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Reads the NUL terminated responses of a ghci process.
+ *
+ * Output is read in blocks into a reusable byte buffer, which is scanned once
+ * for the sentinel and for lines that start with an error marker. The bytes
+ * of a response are only decoded (as UTF-8) once the whole response is in.
+ * Bytes following the sentinel are kept for the next response.
+ *
+ * Not to be used from multiple threads.
+ */
+final class ResponseReader {
+    /** Responses from ghci are terminated by a null byte. */
+    private static final byte SENTINEL = 0;
+
+    /** Start of a line reporting a runtime exception. */
+    private static final byte[] EXCEPTION_HEADER = "*** Exception: ".getBytes(StandardCharsets.UTF_8);
+
+    /** Start of a line reporting a parse or type error. */
+    private static final byte[] PARSE_ERROR_HEADER = "<interactive>".getBytes(StandardCharsets.UTF_8);
+
+    /** Lines are checked for error markers once they are this long. */
+    private static final int MARKER_LENGTH = Math.max(EXCEPTION_HEADER.length, PARSE_ERROR_HEADER.length);
+
+    /** The initial size of the buffer, it grows to fit the largest response. */
+    private static final int INITIAL_SIZE = 8192;
+
+    /** The stream with the output of ghci. */
+    private final InputStream in;
+
+    /** Buffer holding the bytes read but not yet consumed. */
+    private byte[] buffer;
+
+    /** Index of the first unconsumed byte in the buffer. */
+    private int start;
+
+    /** Index after the last valid byte in the buffer. */
+    private int end;
+
+    /**
+     * @param in The stream with the output of ghci.
+     */
+    ResponseReader(InputStream in) {
+        this.in = in;
+        this.buffer = new byte[INITIAL_SIZE];
+        this.start = 0;
+        this.end = 0;
+    }
+
+    /**
+     * Reads the next response, blocking until its sentinel has arrived.
+     * @return The response, including the final newline.
+     * @throws IOException when reading fails or the stream ends before the sentinel.
+     * @throws HaskellException when the response reports an error or exception.
+     */
+    String read() throws IOException, HaskellException {
+        int pos = this.start;
+        int lineStart = this.start;
+        int markerLine = -1;
+        boolean isException = false;
+
+        while (true) {
+            for (; pos < this.end; pos++) {
+                byte b = this.buffer[pos];
+                if (b == '\n' || b == SENTINEL) {
+                    if (markerLine < 0) {
+                        if (startsWith(lineStart, pos, EXCEPTION_HEADER)) {
+                            markerLine = lineStart;
+                            isException = true;
+                        } else if (startsWith(lineStart, pos, PARSE_ERROR_HEADER)) {
+                            markerLine = lineStart;
+                        }
+                    }
+
+                    if (b == SENTINEL) {
+                        return this.finish(pos, markerLine, isException);
+                    }
+
+                    lineStart = pos + 1;
+                }
+            }
+
+            // No sentinel yet, so make room and read more.
+            int shift = this.fill();
+            pos -= shift;
+            lineStart -= shift;
+            if (markerLine >= 0) {
+                markerLine -= shift;
+            }
+        }
+    }
+
+    /**
+     * Reads the next response like read, but hands its output over in pieces as it arrives,
+     * instead of collecting all of it first. The start of a line is held back until
+     * it is clear whether the line reports an error.
+     * @param consumer Gets the pieces of output, in order.
+     * @param limit The number of bytes after which to stop, the rest of the response is then still to come.
+     * @return whether the whole response was read.
+     * @throws IOException when reading fails or the stream ends before the sentinel.
+     * @throws HaskellException when the response reports an error or exception, the output before it has been handed over.
+     */
+    boolean stream(Consumer<String> consumer, long limit) throws IOException, HaskellException {
+        int pos = this.start;
+        int lineStart = this.start;
+        boolean lineChecked = false;
+        int markerLine = -1;
+        boolean isException = false;
+        long streamed = 0;
+
+        while (true) {
+            for (; pos < this.end; pos++) {
+                byte b = this.buffer[pos];
+                boolean endOfLine = b == '\n' || b == SENTINEL;
+                if (markerLine < 0 && !lineChecked && (endOfLine || pos - lineStart >= MARKER_LENGTH)) {
+                    lineChecked = true;
+                    if (startsWith(lineStart, pos, EXCEPTION_HEADER)) {
+                        markerLine = lineStart;
+                        isException = true;
+                    } else if (startsWith(lineStart, pos, PARSE_ERROR_HEADER)) {
+                        markerLine = lineStart;
+                    }
+
+                    if (markerLine > this.start) {
+                        // the output before the error is handed over as usual
+                        consumer.accept(new String(this.buffer, this.start, markerLine - this.start, StandardCharsets.UTF_8));
+                        this.start = markerLine;
+                    }
+                }
+
+                if (b == SENTINEL) {
+                    String rest = this.finish(pos, markerLine, isException);
+                    if (!rest.isEmpty()) {
+                        consumer.accept(rest);
+                    }
+                    return true;
+                }
+
+                if (b == '\n') {
+                    lineStart = pos + 1;
+                    lineChecked = false;
+                }
+            }
+
+            // After an error marker everything is part of the message, otherwise hand over what is safe.
+            if (markerLine < 0) {
+                int safe = this.charBoundary(this.start, lineChecked ? pos : lineStart);
+                if (safe > this.start) {
+                    consumer.accept(new String(this.buffer, this.start, safe - this.start, StandardCharsets.UTF_8));
+                    streamed += safe - this.start;
+                    this.start = safe;
+                    if (streamed >= limit) {
+                        return false;
+                    }
+                }
+            }
+
+            int shift = this.fill();
+            pos -= shift;
+            lineStart -= shift;
+            if (markerLine >= 0) {
+                markerLine -= shift;
+            }
+        }
+    }
+
+    /**
+     * @return the end of the last complete UTF-8 character between from and to.
+     */
+    private int charBoundary(int from, int to) {
+        int lead = to - 1;
+        while (lead >= from && lead > to - 4 && (this.buffer[lead] & 0xC0) == 0x80) {
+            lead--;
+        }
+        if (lead < from) {
+            return to;
+        }
+
+        int b = this.buffer[lead] & 0xFF;
+        int length = b < 0x80 ? 1 : b >= 0xF0 ? 4 : b >= 0xE0 ? 3 : 2;
+        return lead + length > to ? lead : to;
+    }
+
+    /**
+     * Consumes the response ending at the sentinel and decodes it.
+     * @param sentinel The index of the sentinel.
+     * @param markerLine The index of the first line with an error marker, or -1 if none.
+     * @param isException Whether the marker was an exception header instead of a parse error.
+     * @return The decoded response.
+     * @throws HaskellException when the response contains an error marker.
+     */
+    private String finish(int sentinel, int markerLine, boolean isException) throws HaskellException {
+        int from = this.start;
+        this.start = sentinel + 1;
+        if (this.start == this.end) {
+            this.start = 0;
+            this.end = 0;
+        }
+
+        if (markerLine < 0) {
+            return new String(this.buffer, from, sentinel - from, StandardCharsets.UTF_8);
+        }
+
+        if (isException) {
+            // Only the rest of the exception line is the message.
+            int msgStart = markerLine + EXCEPTION_HEADER.length;
+            int msgEnd = msgStart;
+            while (msgEnd < sentinel && this.buffer[msgEnd] != '\n' && this.buffer[msgEnd] != '\r') {
+                msgEnd++;
+            }
+            throw new HaskellException(new String(this.buffer, msgStart, msgEnd - msgStart, StandardCharsets.UTF_8));
+        }
+
+        // Everything from the first error line onwards is part of the message.
+        int msgEnd = sentinel;
+        while (msgEnd > markerLine && (this.buffer[msgEnd - 1] == '\n' || this.buffer[msgEnd - 1] == '\r')) {
+            msgEnd--;
+        }
+        throw new HaskellException(new String(this.buffer, markerLine, msgEnd - markerLine, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Reads at least one more byte into the buffer, first moving the unconsumed
+     * bytes to the front, and growing the buffer if they already fill it.
+     * @return The number of positions the unconsumed bytes were moved back.
+     * @throws IOException when reading fails or the stream has ended.
+     */
+    private int fill() throws IOException {
+        int shift = this.start;
+        if (shift > 0) {
+            System.arraycopy(this.buffer, this.start, this.buffer, 0, this.end - this.start);
+            this.end -= shift;
+            this.start = 0;
+        }
+
+        if (this.end == this.buffer.length) {
+            this.buffer = Arrays.copyOf(this.buffer, this.buffer.length * 2);
+        }
+
+        int n = this.in.read(this.buffer, this.end, this.buffer.length - this.end);
+        if (n < 0) {
+            throw new EOFException("ghci closed its output before the end of the response");
+        }
+
+        this.end += n;
+        return shift;
+    }
+
+    /** @return whether the bytes between from and to start with the given prefix. */
+    private boolean startsWith(int from, int to, byte[] prefix) {
+        if (to - from < prefix.length) {
+            return false;
+        }
+
+        for (int i = 0; i < prefix.length; i++) {
+            if (this.buffer[from + i] != prefix[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -1,6 +1,7 @@
 package nl.utwente.viskell.haskell.env;
 
 import nl.utwente.viskell.haskell.type.Type;
+import nl.utwente.viskell.haskell.type.TypeTemplate;
 import nl.utwente.viskell.ui.serialize.Bundleable;
 
 import java.lang.reflect.InvocationTargetException;
@@ -23,6 +24,9 @@ public abstract class FunctionInfo {
     
     /** The type signature the corresponding function. */
     protected final Type signature;
+
+    /** The signature compiled for making fresh copies of it. */
+    private final TypeTemplate template;
     
     /**
      * @param name The function name.
@@ -31,6 +35,7 @@ public abstract class FunctionInfo {
     protected FunctionInfo(String name, Type signature) {
         this.name = name;
         this.signature = signature;
+        this.template = TypeTemplate.of(signature);
     }
 
     public abstract Map<String, Object> toBundleFragment();
@@ -58,7 +63,7 @@ public abstract class FunctionInfo {
 
     /** @return The a fresh copy of type signature of this function. */
     public final Type getFreshSignature() {
-        return this.signature.getFresh();
+        return this.template.instantiate();
     }
     
     /** @return the number of argument this function can take. */
@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import nl.utwente.viskell.haskell.type.HaskellTypeError;
 import nl.utwente.viskell.haskell.type.Type;
@@ -34,6 +35,14 @@ public class LetExpression extends Expression {
     public Expression getBody() {
         return this.body;
     }
+
+    /**
+     * @return An unmodifiable view of the let bindings, in order of insertion.
+     * Bindings come before the bindings they depend on.
+     */
+    public Map<Binder, Expression> getBindings() {
+        return Collections.unmodifiableMap(this.binders);
+    }
     
     /**
      * Extends a let expression with an extra binding.
@@ -1,22 +1,20 @@
 package nl.utwente.viskell.haskell.type;
 
-import com.google.common.collect.Sets;
-
 import java.util.*;
 import java.util.stream.Collectors;
 
 public final class ConstraintSet {
 
     /**
-     * A set of type class constraints belonging to a single type object.
+     * A set of type class constraints belonging to a single type object, as the numbers of the type classes.
      */
-    TreeSet<TypeClass> constraints;
+    private final BitSet constraints;
 
     public ConstraintSet() {
-        this.constraints = new TreeSet<>();
+        this.constraints = new BitSet();
     }
 
-    public ConstraintSet(TreeSet<TypeClass> constraints) {
+    private ConstraintSet(BitSet constraints) {
         this.constraints = constraints;
     }
 
@@ -31,7 +29,7 @@ public final class ConstraintSet {
      * @param tc the type class to extend this constraint set with
      */
     protected void addExtraConstraint(TypeClass tc) {
-        this.constraints.add(tc);
+        this.constraints.set(tc.id());
         this.simplifyConstraints();
     }
 
@@ -39,7 +37,7 @@ public final class ConstraintSet {
      * @param extras additional constraint set to extend this constraint set with
      */
     protected void addExtraConstraint(ConstraintSet extras) {
-        this.constraints.addAll(extras.constraints);
+        this.constraints.or(extras.constraints);
         this.simplifyConstraints();
     }
     
@@ -51,7 +49,7 @@ public final class ConstraintSet {
      * @return Whether the given type is within the constraints of this type.
      */
     protected boolean allConstraintsMatch(TypeCon con) {
-        return this.constraints.stream().allMatch(c -> c.hasType(con));
+        return this.allInstancesHave(con.id);
     }
 
     /**
@@ -65,7 +63,8 @@ public final class ConstraintSet {
             results.add(new ConstraintSet());
         }
         
-        for (TypeClass typeClass : this.constraints) {
+        for (int c = this.constraints.nextSetBit(0); c >= 0; c = this.constraints.nextSetBit(c + 1)) {
+            TypeClass typeClass = TypeClass.byId(c);
             int n = typeClass.lookupConstrainedArgs(con);
             for (int i = 0; i < n; i++) {
                 results.get(i).addExtraConstraint(typeClass);
@@ -79,17 +78,10 @@ public final class ConstraintSet {
      * simplify the constraint set by removing super class implications
      */
     private void simplifyConstraints() {
-        if (this.constraints.size() <= 1) {
-            return;
+        // superclass sets are transitively closed, so removing them one class at a time gives the same result as removing their union
+        for (int c = this.constraints.nextSetBit(0); c >= 0; c = this.constraints.nextSetBit(c + 1)) {
+            this.constraints.andNot(TypeClass.byId(c).superIds);
         }
-        
-        Set<TypeClass> allSupers = new TreeSet<>();
-        for (TypeClass tc : this.constraints) {
-            allSupers.addAll(tc.getSupers());
-        }
-    
-        this.constraints = new TreeSet<>(Sets.difference(this.constraints, allSupers));
-        return;
     }
     
     /**
@@ -98,7 +90,7 @@ public final class ConstraintSet {
      * @throws HaskellTypeError if the combined constraint set is not satisfiable.
      */
     protected void mergeConstraintsWith(ConstraintSet other) throws HaskellTypeError {
-        this.constraints = new TreeSet<>(Sets.union(this.constraints, other.constraints));
+        this.constraints.or(other.constraints);
         this.simplifyConstraints();
         this.checkSatisfiable();
     }
@@ -109,17 +101,47 @@ public final class ConstraintSet {
      * 
      */
     private void checkSatisfiable() throws HaskellTypeError {
-        if (this.constraints.size() <= 1) {
+        if (this.constraints.cardinality() <= 1) {
             return;
         }
         
-        if (this.constraints.stream().map(TypeClass::allInstanceTypeCons).reduce(Sets::intersection).get().isEmpty()) {
-            throw new HaskellTypeError("no known type constructor satisfies all of " + this.toString());
+        // look for an instance of the first class that all the others have too
+        BitSet candidates = TypeClass.byId(this.constraints.nextSetBit(0)).instanceIds;
+        for (int t = candidates.nextSetBit(0); t >= 0; t = candidates.nextSetBit(t + 1)) {
+            if (this.allInstancesHave(t)) {
+                return;
+            }
         }
+        
+        throw new HaskellTypeError("no known type constructor satisfies all of " + this.toString());
+    }
+
+    /**
+     * @param typecon The number of a type constructor.
+     * @return Whether all the classes in this set have an instance for the type constructor.
+     */
+    private boolean allInstancesHave(int typecon) {
+        for (int c = this.constraints.nextSetBit(0); c >= 0; c = this.constraints.nextSetBit(c + 1)) {
+            if (! TypeClass.byId(c).instanceIds.get(typecon)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The type classes in this set, ordered by name.
+     */
+    private Set<TypeClass> classes() {
+        Set<TypeClass> classes = new TreeSet<>();
+        for (int c = this.constraints.nextSetBit(0); c >= 0; c = this.constraints.nextSetBit(c + 1)) {
+            classes.add(TypeClass.byId(c));
+        }
+        return classes;
     }
 
     protected Optional<ConcreteType> tryGetDefaulted() {
-        Set<TypeClass> classes = this.constraints;
+        Set<TypeClass> classes = this.classes();
         // search through the type classes for a suitable default
         while (!classes.isEmpty()) {
             for (TypeClass tc : classes) {
@@ -143,18 +165,19 @@ public final class ConstraintSet {
      * @return The readable representation of this type for in the UI.
      */
     public String prettyPrintWith(String typeText, final int fixity) {
-        if (this.constraints.isEmpty()) {
+        Set<TypeClass> classes = this.classes();
+        if (classes.isEmpty()) {
             return typeText;
-        } else if (fixity < 9 && this.constraints.size() == 1) {
-            return this.constraints.iterator().next().getName() + " " + typeText;
+        } else if (fixity < 9 && classes.size() == 1) {
+            return classes.iterator().next().getName() + " " + typeText;
         } else {
             final StringBuilder out = new StringBuilder();
             out.append("(");
 
             int i = 0;
-            for (TypeClass tc : this.constraints) {
+            for (TypeClass tc : classes) {
                 out.append(tc.getName());
-                if (i + 1 < this.constraints.size()) {
+                if (i + 1 < classes.size()) {
                     out.append("+");
                 }
 
@@ -170,12 +193,12 @@ public final class ConstraintSet {
     
     @Override
     public ConstraintSet clone() {
-        return new ConstraintSet(new TreeSet<>(this.constraints));
+        return new ConstraintSet((BitSet) this.constraints.clone());
     }
 
     @Override
     public String toString() {
-        return Arrays.toString(this.constraints.stream().map(c -> c.getName()).toArray());
+        return Arrays.toString(this.classes().stream().map(c -> c.getName()).toArray());
     }
 
     @Override
@@ -188,7 +211,7 @@ public final class ConstraintSet {
     }
 
     public int count() {
-        return this.constraints.size();
+        return this.constraints.cardinality();
     }
 
 }
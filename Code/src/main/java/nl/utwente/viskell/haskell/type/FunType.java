@@ -15,6 +15,9 @@ public class FunType extends ConcreteType {
      */
     private final Type result;
 
+    /** Whether this function type contains no type variables. */
+    private final boolean ground;
+
     /**
      * @param arg The argument type that this function type accepts.
      * @param result The result type that this function type returns.
@@ -22,6 +25,7 @@ public class FunType extends ConcreteType {
     public FunType(final Type arg, final Type res) {
         this.argument = arg;
         this.result = res;
+        this.ground = arg.isGround() && res.isGround();
     }
 
     public Type getArgument() {
@@ -47,8 +51,17 @@ public class FunType extends ConcreteType {
         return out.toString();
     }
 
+    @Override
+    public boolean isGround() {
+        return this.ground;
+    }
+
     @Override
     public FunType getFresh(TypeScope scope) {
+        if (this.ground) {
+            return this;
+        }
+        
         return new FunType(this.argument.getFresh(scope), this.result.getFresh(scope));
     }
 
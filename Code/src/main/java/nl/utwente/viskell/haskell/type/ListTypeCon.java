@@ -4,8 +4,8 @@ import java.util.List;
 
 public class ListTypeCon extends TypeCon {
 
-    ListTypeCon() {
-        super("[]");
+    ListTypeCon(int id) {
+        super("[]", id);
     }
 
     @Override
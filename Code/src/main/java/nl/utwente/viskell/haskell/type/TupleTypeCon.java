@@ -9,9 +9,10 @@ public class TupleTypeCon extends TypeCon {
 
     /*
      * @param arity the number of arguments (>= 2) or 0 in the type
+     * @param id the dense number of the type constructor
      */
-    TupleTypeCon(int arity) {
-        super(tupleName(arity));
+    TupleTypeCon(int arity, int id) {
+        super(tupleName(arity), id);
     }
     
     /*
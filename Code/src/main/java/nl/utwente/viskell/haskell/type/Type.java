@@ -59,6 +59,11 @@ public abstract class Type {
      * @return An equivalent deep copy of this type, using fresh type variables.
      */
     public final Type getFresh() {
+        if (this.isGround()) {
+            // nothing to refresh, so no need for a scope
+            return this;
+        }
+        
         return this.getFresh(new TypeScope());
     }
 
@@ -68,6 +73,13 @@ public abstract class Type {
      */
     public abstract Type getFresh(final TypeScope scope);
 
+    /**
+     * @return Whether this type contains no type variables at all, so it can be shared instead of copied.
+     */
+    public boolean isGround() {
+        return false;
+    }
+
     /** @return The type with all instantiated type variable replaced by concrete types. */
     public abstract Type getConcrete();
     
@@ -106,23 +118,11 @@ public abstract class Type {
     }
 
     /**
-     * @return a new type constructor
+     * @return the type constructor with a name
      * @param name of type constructor.
      */
     public final static TypeCon con(String name) {
-        if ("[]".equals(name)) {
-            return new ListTypeCon();
-        }
-        
-        if ("()".equals(name)) {
-            return new TupleTypeCon(0);
-        }
-        
-        if (name.startsWith("(,")) {
-            return new TupleTypeCon(name.length()-1);
-        }
-        
-        return new TypeCon(name);
+        return TypeCon.intern(name);
     }
 
     /**
@@ -179,7 +179,7 @@ public abstract class Type {
      * @param elem element type
      */
     public final static Type listOf(Type elem) {
-        return new TypeApp(new ListTypeCon(), elem);
+        return new TypeApp(Type.con("[]"), elem);
     }
 
     /**
@@ -187,7 +187,7 @@ public abstract class Type {
      * @param elems list of element types
      */
     public final static Type tupleOf(Type... elems) {
-        Type t = new TupleTypeCon(elems.length);
+        Type t = Type.con(TupleTypeCon.tupleName(elems.length));
         for (Type e : elems) {
             t = new TypeApp(t, e);
         }
@@ -16,12 +16,16 @@ public class TypeApp extends ConcreteType {
      */
     private final Type typeArg;
     
+    /** Whether this type application contains no type variables. */
+    private final boolean ground;
+    
     /** The set of constraints attached to this type application that can not yet be propagated further. */
     private ConstraintSet constraints;
     
     TypeApp(Type typeFun, Type typearg) {
         this.typeFun = typeFun;
         this.typeArg = typearg;
+        this.ground = typeFun.isGround() && typearg.isGround();
         this.constraints = new ConstraintSet();
     }
 
@@ -77,8 +81,18 @@ public class TypeApp extends ConcreteType {
         return chain;
     }
     
+    @Override
+    public boolean isGround() {
+        return this.ground;
+    }
+
     @Override
     public TypeApp getFresh(TypeScope scope) {
+        if (this.ground) {
+            // constraints are only attached to applications of type variables, so this can be shared
+            return this;
+        }
+        
         return new TypeApp(this.typeFun.getFresh(scope), this.typeArg.getFresh(scope));
     }
 
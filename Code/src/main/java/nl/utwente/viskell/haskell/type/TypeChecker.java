@@ -2,7 +2,10 @@ package nl.utwente.viskell.haskell.type;
 
 import nl.utwente.viskell.haskell.expr.Expression;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.List;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -27,85 +30,137 @@ public final class TypeChecker {
     }
 
     public static void unify(final Expression context, final Type a, final Type b) throws HaskellTypeError {
-        TypeChecker.unify(context.toString(), a, b);
+        // showing the whole expression is costly, so only do so for an error
+        TypeChecker.unify(context::toString, a, b);
     }
     
     public static void unify(final String context, final Type a, final Type b) throws HaskellTypeError {
+        TypeChecker.unify(() -> context, a, b);
+    }
+
+    /**
+     * Unifies two types, working through their parts with an explicit stack instead of recursion.
+     * The stack is only allocated for types with parts, and messages are only built when needed.
+     * 
+     * @param context Gives the description of where the types come from, for errors.
+     * @param a The first type.
+     * @param b The second type.
+     * @throws HaskellTypeError if the types can not be unified.
+     */
+    private static void unify(final Supplier<String> context, Type a, Type b) throws HaskellTypeError {
+        // the pairs of types that still need to be unified, as the first type on top of the second
+        Deque<Type> pending = null;
         
-        TypeChecker.logger.info(String.format("Unifying types %s and %s for context %s", a, b, context));
+        while (true) {
+            if (TypeChecker.logger.isLoggable(Level.INFO)) {
+                TypeChecker.logger.info(String.format("Unifying types %s and %s for context %s", a, b, context.get()));
+            }
 
-        if (a.equals(b)) {
-            // for identical types unifying is trivial
-        } else if (a instanceof TypeVar) {
-            TypeVar va = (TypeVar) a;
+            if (a.equals(b)) {
+                // for identical types unifying is trivial
+            } else if (a instanceof TypeVar) {
+                TypeVar va = (TypeVar) a;
 
-            // First, prevent ourselves from going into an infinite loop
-            if (b.containsOccurenceOf(va)) {
-                TypeChecker.logger.info(String.format("Recursion in types %s and %s for context %s", a, b, context));
-                throw new HaskellTypeError(String.format("%s ∈ %s in context of %s", a, b, context));
-            }
+                // First, prevent ourselves from going into an infinite loop
+                if (b.containsOccurenceOf(va)) {
+                    throw TypeChecker.failure("Recursion in", "%s ∈ %s in context of %s", a, b, context);
+                }
 
-            if (va.hasConcreteInstance()) {
-                // if a type variable has been instantiated already then we can just unify b with a concrete type of a
-                TypeChecker.unify(context, va.getInstantiatedType(), b);
-            } else if (b instanceof TypeVar) {
-                TypeVar vb = (TypeVar) b;
-                
-                if (vb.hasConcreteInstance()) {
-                    // with type variable b instantiated continue with unifying type variable a with the concrete type of b
-                    TypeChecker.unify(context, va, vb.getInstantiatedType());
-                } else {
-                    // two plain type variable are unified by sharing the internal reference of (future) type instance   
-                    vb.unifyWith(va);
+                if (va.hasConcreteInstance()) {
+                    // if a type variable has been instantiated already then we can just unify b with a concrete type of a
+                    a = va.getInstantiatedType();
+                    continue;
+                } else if (b instanceof TypeVar) {
+                    TypeVar vb = (TypeVar) b;
+                    
+                    if (vb.hasConcreteInstance()) {
+                        // with type variable b instantiated continue with unifying type variable a with the concrete type of b
+                        b = vb.getInstantiatedType();
+                        continue;
+                    } else {
+                        // two plain type variable are unified by sharing the internal reference of (future) type instance   
+                        vb.unifyWith(va);
+                    }
+                } else if (b instanceof ConcreteType) {
+                    ConcreteType tb = (ConcreteType) b;
+                    // check that the type satisfy the constraints
+                    TypeChecker.satisfyConstraints(tb, va.getConstraints(), context);
+                    // then make the type variable instantiated by this concrete type 
+                    va.setConcreteInstance(tb);
                 }
-            } else if (b instanceof ConcreteType) {
-                ConcreteType tb = (ConcreteType) b;
-                // check that the type satisfy the constraints
-                TypeChecker.satisfyConstraints(tb, va.getConstraints(), context);
-                // then make the type variable instantiated by this concrete type 
-                va.setConcreteInstance(tb);
+            } else if (b instanceof TypeVar && a instanceof ConcreteType) {
+                // Example: we have to unify Int and α.
+                // Same as above, but mirrored.
+                Type t = a;
+                a = b;
+                b = t;
+                continue;
+            } else if (a instanceof TypeCon && b instanceof TypeCon) {
+                // unification of type constructor is just equality, and type constructors are interned
+                if (a != b) {
+                    throw TypeChecker.failure("Mismatching TypeCon", "%s ⊥ %s in context of %s", a, b, context);
+                }
+            } else if (a instanceof FunType && b instanceof FunType) {
+                // Unifying function types is pairwise unification of its argument and result. 
+                FunType fa = (FunType) a;
+                FunType fb = (FunType) b;
+                pending = TypeChecker.later(pending, fa.getResult(), fb.getResult());
+                a = fa.getArgument();
+                b = fb.getArgument();
+                continue;
+            } else if (a instanceof TypeApp && b instanceof TypeApp) {
+                // Unifying type applications is pairwise unification of its typeFun and typeArg. 
+                TypeApp ta = (TypeApp) a;
+                TypeApp tb = (TypeApp) b;
+                pending = TypeChecker.later(pending, ta.getTypeArg(), tb.getTypeArg());
+                a = ta.getTypeFun();
+                b = tb.getTypeFun();
+                continue;
+            } else {
+                // Running out of things that can be unified, so bail out with a type error.
+                throw TypeChecker.failure("Given up to unify", "%s ⊥ %s in context of %s", a, b, context);
             }
-        } else if (b instanceof TypeVar && a instanceof ConcreteType) {
-            // Example: we have to unify Int and α.
-            // Same as above, but mirrored.
-            TypeChecker.unify(context, b, a);
-        } else if (a instanceof TypeCon && b instanceof TypeCon) {
-            final TypeCon ca = (TypeCon) a;
-            final TypeCon cb = (TypeCon) b;
-            // unification of type constructor is just name equality
-            if (! ca.getName().equals(cb.getName()))
-            {
-                TypeChecker.logger.info(String.format("Mismatching TypeCon %s and %s for context %s", a, b, context));
-                throw new HaskellTypeError(String.format("%s ⊥ %s in context of %s", a, b, context));
+
+            if (pending == null || pending.isEmpty()) {
+                return;
             }
-        } else if (a instanceof FunType && b instanceof FunType) {
-            // Unifying function types is pairwise unification of its argument and result. 
-            FunType fa = (FunType) a;
-            FunType fb = (FunType) b;
-            TypeChecker.unify(context, fa.getArgument(), fb.getArgument());
-            TypeChecker.unify(context, fa.getResult(), fb.getResult());
-        } else if (a instanceof TypeApp && b instanceof TypeApp) {
-            // Unifying type applications is pairwise unification of its typeFun and typeArg. 
-            TypeApp ta = (TypeApp) a;
-            TypeApp tb = (TypeApp) b;
-            TypeChecker.unify(context, ta.getTypeFun(), tb.getTypeFun());
-            TypeChecker.unify(context, ta.getTypeArg(), tb.getTypeArg());
-        } else {
-            // Running out of things that can be unified, so bail out with a type error.
-            TypeChecker.logger.info(String.format("Given up to unify types %s and %s for context %s", a, b, context));
-            throw new HaskellTypeError(String.format("%s ⊥ %s in context of %s", a, b, context));
+            a = pending.pop();
+            b = pending.pop();
         }
     }
 
+    /**
+     * Puts aside a pair of types to unify after the current one.
+     * @return the stack of pending pairs, created if there was none yet.
+     */
+    private static Deque<Type> later(Deque<Type> pending, Type a, Type b) {
+        Deque<Type> stack = pending == null ? new ArrayDeque<>() : pending;
+        stack.push(b);
+        stack.push(a);
+        return stack;
+    }
+
+    /**
+     * Logs why two types could not be unified, and makes the error for it.
+     * @param what The reason in the log message.
+     * @param format The format of the error message, taking both types and the context.
+     * @return the error to throw.
+     */
+    private static HaskellTypeError failure(String what, String format, Type a, Type b, Supplier<String> context) {
+        String where = context.get();
+        TypeChecker.logger.info(String.format("%s types %s and %s for context %s", what, a, b, where));
+        return new HaskellTypeError(String.format(format, a, b, where));
+    }
+
     /**
      * Check and enforce that a type matches a set of type class constraints.
      * 
      * @param type A concrete type which is affected by the constraints
      * @param constraints The set of constraint that need to be satisfied.
-     * @param context the expression string to use as context in errors. 
+     * @param context Gives the expression string to use as context in errors. 
      * @throws HaskellTypeError if the constraints can no be satisfied by this type.
      */
-    protected static void satisfyConstraints(Type type, ConstraintSet constraints, String context) throws HaskellTypeError {
+    protected static void satisfyConstraints(Type type, ConstraintSet constraints, Supplier<String> context) throws HaskellTypeError {
         if (! constraints.hasConstraints()) {
             // empty constraints are always satisfied.
             return;
@@ -161,8 +216,9 @@ public final class TypeChecker {
         }
         
         // for now, constraining other types will fail.
-        TypeChecker.logger.info(String.format("Unable to unify types %s with constraints %s for context %s", type, constraints, context));
-        throw new HaskellTypeError(String.format("%s ∉ constraints of %s in context of %s", type, constraints, context));
+        String where = context.get();
+        TypeChecker.logger.info(String.format("Unable to unify types %s with constraints %s for context %s", type, constraints, where));
+        throw new HaskellTypeError(String.format("%s ∉ constraints of %s in context of %s", type, constraints, where));
     }
 
 }
@@ -1,12 +1,24 @@
 package nl.utwente.viskell.haskell.type;
 
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.TreeSet;
 
 /**
  * Haskell TypeClass with its instances and superclasses.
+ *
+ * Type classes are numbered densely by their definition, so that sets of them can
+ * be bit sets. A class gets its number when it is first used, after it has been
+ * defined. Loading a catalog again gives its classes the numbers they had before,
+ * and a class that is defined differently gets a new number, so existing sets keep
+ * their meaning and the numbers stay bounded. Every class keeps its superclass
+ * closure and its instance type constructors as bit sets too, to make constraint sets cheap.
  */
 public class TypeClass implements Comparable<TypeClass> {
     
@@ -44,20 +56,37 @@ public class TypeClass implements Comparable<TypeClass> {
         }
 
     }
+    /** The numbers given out to the type class definitions so far. */
+    private static final Map<String, Integer> ids = new HashMap<>();
+
+    /** The first type class with each definition, by the number of the definition. */
+    private static volatile TypeClass[] registered = new TypeClass[0];
+
     /**
      * The name of this type class.
      */
     private String name;
 
     /**
-     * The instances of this type class.
+     * The dense number of the definition of this type class, for use in bit sets, or -1 until it is first used.
      */
-    private Set<Instance> instances;
+    private volatile int id;
+
+    /**
+     * The instances of this type class, by their type constructor.
+     */
+    private Map<TypeCon, Instance> instances;
 
     /**
      * The superclasses of this type class.
      */
     private Set<TypeClass> supers;
+
+    /** The numbers of the superclasses of this type class, including the indirect ones. */
+    final BitSet superIds;
+
+    /** The numbers of the type constructors that have an instance of this type class. */
+    final BitSet instanceIds;
     
     /** The optional type constructor to use for the typeclass defaulting. */
     private Optional<TypeCon> defaultType;
@@ -68,14 +97,61 @@ public class TypeClass implements Comparable<TypeClass> {
      */
     public TypeClass(String name, TypeCon ... cons) {
         this.name = name;
-        this.instances = new HashSet<>();
+        this.instances = new IdentityHashMap<>();
         this.supers = new HashSet<>();
+        this.superIds = new BitSet();
+        this.instanceIds = new BitSet();
         this.defaultType = Optional.empty();
+        this.id = -1;
         for (TypeCon tc : cons) {
             this.addInstance(tc, 0);
         }
     }
 
+    /**
+     * @return the number of the definition of this type class, which is fixed from the first use on.
+     */
+    final int id() {
+        int known = this.id;
+        return known >= 0 ? known : register(this);
+    }
+
+    /**
+     * Numbers a type class by its definition, and makes it the one to look up by that number if it is the first.
+     * @param tc The type class to register.
+     * @return the number of the definition of the type class.
+     */
+    private static synchronized int register(TypeClass tc) {
+        if (tc.id < 0) {
+            int id = ids.computeIfAbsent(tc.definition(), d -> ids.size());
+            if (id >= registered.length) {
+                // the array is replaced instead of changed, so it can be read without locking
+                TypeClass[] classes = Arrays.copyOf(registered, id + 1);
+                classes[id] = tc;
+                registered = classes;
+            }
+            tc.id = id;
+        }
+        return tc.id;
+    }
+
+    /** @return the name, instances, superclasses and default type of this type class, as text. */
+    private String definition() {
+        StringBuilder definition = new StringBuilder(this.name);
+        new TreeSet<>(this.instances.values()).forEach(inst -> definition.append(' ').append(inst));
+        definition.append(" <= ").append(this.superIds);
+        this.defaultType.ifPresent(type -> definition.append(" default ").append(type.getName()));
+        return definition.toString();
+    }
+
+    /**
+     * @param id The number of a type class definition.
+     * @return the first type class with that definition.
+     */
+    static TypeClass byId(int id) {
+        return registered[id];
+    }
+
     /**
      * @return The name of this type class.
      */
@@ -88,7 +164,8 @@ public class TypeClass implements Comparable<TypeClass> {
      * @param constrainedArgs the number of type parameter that needs to be constrained to make the instance valid
      */
     public final void addInstance(TypeCon tc, int constrainedArgs) {
-            this.instances.add(new Instance(tc, constrainedArgs));
+            this.instances.put(tc, new Instance(tc, constrainedArgs));
+            this.instanceIds.set(tc.id);
     }
 
     public void setDefaultType(TypeCon defType) {
@@ -113,10 +190,8 @@ public class TypeClass implements Comparable<TypeClass> {
         this.supers.add(tc);
         // Also transitively add all the superclasses of this superclass for easier simplification
         this.supers.addAll(tc.supers);
-    }
-
-    protected Set<TypeCon> allInstanceTypeCons() {
-        return this.instances.stream().map(i -> i.typecon).collect(Collectors.toSet());
+        this.superIds.set(tc.id());
+        this.superIds.or(tc.superIds);
     }
     
     /**
@@ -124,8 +199,7 @@ public class TypeClass implements Comparable<TypeClass> {
      * @return Whether the given type constructor is in this type class.
      */
     public final boolean hasType(TypeCon type) {
-        Instance inst = new Instance(type, 0);
-        return this.instances.stream().anyMatch(i -> i.compareTo(inst) == 0);
+        return this.instanceIds.get(type.id);
     }
 
     /**
@@ -133,17 +207,12 @@ public class TypeClass implements Comparable<TypeClass> {
      * @return The number of constrained arguments the instance of this typecon in this class has, or -1 if not found.
      */
     public int lookupConstrainedArgs(TypeCon con) {
-        for (Instance inst : this.instances) {
-            if (inst.typecon.equals(con)) {
-                return inst.constrainedArgs;
-            }
-        }
-        
-        return -1;
+        Instance inst = this.instances.get(con);
+        return inst == null ? -1 : inst.constrainedArgs;
     }
 
     public final String toString() {
-        return String.format("%s=>%s:%s", this.supers.stream().map(t ->t.getName()), this.name, this.instances.toString());
+        return String.format("%s=>%s:%s", this.supers.stream().map(t ->t.getName()), this.name, this.instances.values().toString());
     }
 
     @Override
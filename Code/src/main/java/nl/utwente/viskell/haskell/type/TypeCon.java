@@ -1,13 +1,53 @@
 package nl.utwente.viskell.haskell.type;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A type constructor. There is only a single TypeCon for every name, so type constructors can be compared by identity.
+ */
 public class TypeCon extends ConcreteType {
     /**
      * The name of type constructor.
      */
     protected final String name;
 
-    TypeCon(String name) {
+    /**
+     * The dense number of the name of this type constructor, for use in bit sets.
+     */
+    final int id;
+
+    /** The type constructors by name, numbered in the order they were first asked for. */
+    private static final Map<String, TypeCon> interned = new ConcurrentHashMap<>();
+
+    TypeCon(String name, int id) {
         this.name = name;
+        this.id = id;
+    }
+
+    /**
+     * @param name The name of a type constructor.
+     * @return the single type constructor with that name.
+     */
+    static TypeCon intern(String name) {
+        TypeCon con = interned.get(name);
+        return con != null ? con : internNew(name);
+    }
+
+    /** Creates the type constructor for a name, unless another thread just did. */
+    private static synchronized TypeCon internNew(String name) {
+        // creating them one at a time keeps the numbers dense
+        return interned.computeIfAbsent(name, n -> {
+            int id = interned.size();
+            if ("[]".equals(n)) {
+                return new ListTypeCon(id);
+            } else if ("()".equals(n)) {
+                return new TupleTypeCon(0, id);
+            } else if (n.startsWith("(,")) {
+                return new TupleTypeCon(n.length() - 1, id);
+            }
+            return new TypeCon(n, id);
+        });
     }
 
     /**
@@ -22,6 +62,11 @@ public class TypeCon extends ConcreteType {
         return this.name;
     }
 
+    @Override
+    public boolean isGround() {
+        return true;
+    }
+
     @Override
     public TypeCon getFresh(TypeScope scope) {
         return this;
@@ -29,7 +74,7 @@ public class TypeCon extends ConcreteType {
 
     @Override
 	public Type getConcrete() {
-    	return Type.con(this.name);
+    	return this;
 	}
 
 	@Override
@@ -37,16 +82,6 @@ public class TypeCon extends ConcreteType {
         return false;
     }
 
-    @Override
-    public boolean equals(Object other) {
-        return other instanceof TypeCon && this.name.equals(((TypeCon)other).getName());
-    }
-
-    @Override
-    public int hashCode() {
-        return this.name.hashCode();
-    }
-
     @Override
     public String toString() {
         return this.name;
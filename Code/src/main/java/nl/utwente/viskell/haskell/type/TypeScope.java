@@ -4,26 +4,28 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class TypeScope {
     /**
-     * Offset for the creation of globally unique type variable names.
+     * Offset for the creation of globally unique type variable names, shared by all threads doing type checking.
      */
-    static int tvOffset = 0;
+    private static final AtomicInteger tvOffset = new AtomicInteger();
     
     /**
-     * Lookup table by textual name for type variable within this scope 
+     * Lookup table by textual name for type variable within this scope, or null while empty.
      */
     private HashMap<String, TypeVar> vars;
     
     /**
-     * The mapping between known type instances and their related fresh type variables
+     * The mapping between known type instances and their related fresh type variables, or null while empty.
      */
     private IdentityHashMap<TypeVar.TypeInstance, TypeVar> staleToFresh;
     
     public TypeScope() {
-        this.vars = new HashMap<>();
-        this.staleToFresh = new IdentityHashMap<>();
+        // many scopes are only used for ground types, so the tables are made on demand
+        this.vars = null;
+        this.staleToFresh = null;
     }
     
     /**
@@ -32,7 +34,9 @@ public class TypeScope {
      * @return TypeVar that is (now) associated with the name
      */
     public TypeVar getVar(String name) {
-        if (this.vars.containsKey(name)) {
+        if (this.vars == null) {
+            this.vars = new HashMap<>();
+        } else if (this.vars.containsKey(name)) {
             return this.vars.get(name);
         }
         
@@ -68,6 +72,9 @@ public class TypeScope {
      * This internal method should only be called from the TypeVar in the argument
      */
     protected TypeVar pickFreshTypeVar(TypeVar var) {
+        if (this.staleToFresh == null) {
+            this.staleToFresh = new IdentityHashMap<>();
+        }
         return var.pickFreshTypeVarInstance(this.staleToFresh);
     }
 
@@ -77,7 +84,7 @@ public class TypeScope {
      * @return The new type variable
      */
     public static TypeVar unique(String prefix) {
-        return new TypeVar(prefix + "___" + Integer.toHexString(tvOffset++), true);
+        return new TypeVar(prefix + "___" + Integer.toHexString(tvOffset.getAndIncrement()), true);
     }
 
     /**
@@ -88,6 +95,9 @@ public class TypeScope {
     protected static List<TypeVar.TypeInstance> gatherAllTypeVarInsts(Type type) {
         TypeScope scope = new TypeScope();
         type.getFresh(scope);
+        if (scope.staleToFresh == null) {
+            return new ArrayList<>();
+        }
         return new ArrayList<>(scope.staleToFresh.keySet());
     }
 
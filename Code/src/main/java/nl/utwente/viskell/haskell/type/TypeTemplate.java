@@ -0,0 +1,152 @@
+package nl.utwente.viskell.haskell.type;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A type compiled for making many fresh copies of it cheaply, such as the signature of a library function.
+ *
+ * The type is flattened into a skeleton of nodes in postfix order. Parts without type variables are
+ * shared as they are, and type variables refer to slots. Instantiating the template only makes a fresh
+ * type variable per slot and the nodes that contain them, without any scope or lookup tables.
+ * The compiled type should not be unified afterwards, as the template does not follow changes to it.
+ */
+public final class TypeTemplate {
+    /** The kinds of nodes in the skeleton. */
+    private static final byte GROUND = 0, SLOT = 1, FUN = 2, APP = 3;
+
+    /** The kind of every node. */
+    private final byte[] ops;
+
+    /** The index in grounds or slots of every ground or slot node. */
+    private final int[] args;
+
+    /** The parts of the type without type variables. */
+    private final Type[] grounds;
+
+    /** The distinct type variables of the type. */
+    private final TypeVar[] slots;
+
+    /** The number of partial types that are needed at once while instantiating. */
+    private final int depth;
+
+    private TypeTemplate(byte[] ops, int[] args, Type[] grounds, TypeVar[] slots, int depth) {
+        this.ops = ops;
+        this.args = args;
+        this.grounds = grounds;
+        this.slots = slots;
+        this.depth = depth;
+    }
+
+    /**
+     * @param type The type to compile.
+     * @return a template for making fresh copies of the type.
+     */
+    public static TypeTemplate of(Type type) {
+        Compiler compiler = new Compiler();
+        compiler.compile(type);
+
+        int n = compiler.ops.size();
+        byte[] ops = new byte[n];
+        int[] args = new int[n];
+        for (int i = 0; i < n; i++) {
+            ops[i] = compiler.ops.get(i);
+            args[i] = compiler.args.get(i);
+        }
+
+        Type[] grounds = compiler.grounds.toArray(new Type[compiler.grounds.size()]);
+        TypeVar[] slots = compiler.slots.toArray(new TypeVar[compiler.slots.size()]);
+        return new TypeTemplate(ops, args, grounds, slots, compiler.depth);
+    }
+
+    /**
+     * @return An equivalent copy of the compiled type, using fresh type variables.
+     */
+    public Type instantiate() {
+        TypeVar[] fresh = new TypeVar[this.slots.length];
+        Type[] stack = new Type[this.depth];
+        int top = 0;
+
+        for (int i = 0; i < this.ops.length; i++) {
+            switch (this.ops[i]) {
+                case GROUND:
+                    stack[top++] = this.grounds[this.args[i]];
+                    break;
+                case SLOT:
+                    int slot = this.args[i];
+                    if (fresh[slot] == null) {
+                        fresh[slot] = this.slots[slot].freshCopy();
+                    }
+                    stack[top++] = fresh[slot];
+                    break;
+                case FUN:
+                    top--;
+                    stack[top - 1] = new FunType(stack[top - 1], stack[top]);
+                    break;
+                default:
+                    top--;
+                    stack[top - 1] = new TypeApp(stack[top - 1], stack[top]);
+                    break;
+            }
+        }
+
+        return stack[0];
+    }
+
+    /** Flattens a type into the parts of a template. */
+    private static final class Compiler {
+        private final List<Byte> ops = new ArrayList<>();
+        private final List<Integer> args = new ArrayList<>();
+        private final List<Type> grounds = new ArrayList<>();
+        private final List<TypeVar> slots = new ArrayList<>();
+
+        /** The number of partial types the nodes so far leave. */
+        private int height = 0;
+
+        /** The highest number of partial types so far. */
+        private int depth = 0;
+
+        private void compile(Type type) {
+            if (type.isGround()) {
+                this.grounds.add(type);
+                this.leaf(GROUND, this.grounds.size() - 1);
+            } else if (type instanceof TypeVar) {
+                TypeVar var = (TypeVar) type;
+                if (var.hasConcreteInstance()) {
+                    this.compile(var.getInstantiatedType());
+                } else {
+                    // type variables that have been unified share the slot
+                    int slot = this.slots.indexOf(var);
+                    if (slot < 0) {
+                        this.slots.add(var);
+                        slot = this.slots.size() - 1;
+                    }
+                    this.leaf(SLOT, slot);
+                }
+            } else if (type instanceof FunType) {
+                FunType ft = (FunType) type;
+                this.compile(ft.getArgument());
+                this.compile(ft.getResult());
+                this.node(FUN);
+            } else {
+                TypeApp ta = (TypeApp) type;
+                this.compile(ta.getTypeFun());
+                this.compile(ta.getTypeArg());
+                this.node(APP);
+            }
+        }
+
+        private void leaf(byte op, int arg) {
+            this.ops.add(op);
+            this.args.add(arg);
+            this.height++;
+            this.depth = Math.max(this.depth, this.height);
+        }
+
+        private void node(byte op) {
+            this.ops.add(op);
+            this.args.add(-1);
+            this.height--;
+        }
+    }
+}
@@ -1,11 +1,8 @@
 package nl.utwente.viskell.haskell.type;
 
-import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.IdentityHashMap;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
 
 import com.google.common.collect.ImmutableList;
 
@@ -17,17 +14,31 @@ public class TypeVar extends Type {
 
     /**
      * An optional mutable reference to a concrete type.
+     *
+     * Type instances form a union-find structure: unified instances are linked
+     * into a tree, and only the root holds the shared state. Trees are joined by
+     * rank and paths are compressed on lookup, so unification takes nearly constant time.
      */
     protected final static class TypeInstance {
+        /**
+         * The instance this one has been unified into, or null if this is the root of its set.
+         */
+        private TypeInstance parent;
+
+        /**
+         * An upper bound on the height of the tree below this root.
+         */
+        private int rank;
+
         /**
          * The textual representation of the type variable.
          */
-        private final String name;
+        private String name;
 
         /**
          * Whether this type variable was created internally in typechecking process, and preferably should not be shown to the user.
          */
-        private final boolean internal;
+        private boolean internal;
 
         /**
          * Whether this type variable is rigid (meaning that it can't be unified with a more specific or concrete type)
@@ -48,13 +59,6 @@ public class TypeVar extends Type {
          * List of type applications that needs their constraints checked once this variable is instantiated.
          */
         private List<TypeApp> associatedTypeApps;
-        
-        /**
-         * Internal List of all type variables that refer to this instance.
-         * this list contains the creating type variable as well as the variables have unified with this.
-         * It is using WeakReference to avoid holding on to too much old type variables. 
-         */
-        private LinkedList<WeakReference<TypeVar>> unifiedVars;
 
         /**
          * @param name The textual representation of the type variable.
@@ -62,17 +66,37 @@ public class TypeVar extends Type {
          * @param type The concrete instance of this type, might be null.
          * @param constraints The set of constraints for this type.
          */
-        private TypeInstance(TypeVar creator, String name, boolean internal, boolean isRigid, ConcreteType type, final ConstraintSet constraints) {
+        private TypeInstance(String name, boolean internal, boolean isRigid, ConcreteType type, final ConstraintSet constraints) {
+            this.parent = null;
+            this.rank = 0;
             this.name = name;
             this.internal = internal;
             this.isRigid = isRigid;
             this.type = type;
             this.constraints = constraints;
-            this.unifiedVars = new LinkedList<>();
-            this.unifiedVars.add(new WeakReference<>(creator));
             this.associatedTypeApps = new ArrayList<>();
         }
 
+        /**
+         * @return The root of the set of unified instances this instance belongs to.
+         */
+        private TypeInstance find() {
+            TypeInstance root = this;
+            while (root.parent != null) {
+                root = root.parent;
+            }
+
+            // point everything on the path straight at the root
+            TypeInstance node = this;
+            while (node.parent != null && node.parent != root) {
+                TypeInstance next = node.parent;
+                node.parent = root;
+                node = next;
+            }
+
+            return root;
+        }
+
         
         /**
          *  Make this type variable rigid
@@ -123,7 +147,7 @@ public class TypeVar extends Type {
             
             // now the type variable is instantiated we need check all deferred typeapp constraints
             for (TypeApp tapp : this.associatedTypeApps) {
-            	TypeChecker.satisfyConstraints(tapp, this.constraints, "typeapp constraint with " + this.getName());
+            	TypeChecker.satisfyConstraints(tapp, this.constraints, () -> "typeapp constraint with " + this.getName());
             	// once satisfied the constraints are not needed anymore
             	tapp.clearConstraints();
             }
@@ -131,7 +155,8 @@ public class TypeVar extends Type {
         }
 
         /**
-         * Deeply unifying all aspects of type instances
+         * Deeply unifying all aspects of type instances, both have to be roots.
+         * The unified instance keeps the name and rigidity of the other instance.
          * @param the other type instance.
          * @throws HaskellTypeError if the combined constraint set of the typevar instances is not satisfiable.
          * @throws HaskellTypeError if a rigid type variable gets unified with more constraints or another rigid type variable
@@ -152,16 +177,21 @@ public class TypeVar extends Type {
             
             other.constraints.mergeConstraintsWith(this.constraints);
             other.associatedTypeApps.addAll(this.associatedTypeApps);
-            
-            other.unifiedVars.addAll(this.unifiedVars);
-            // Go through all type variable associated with both type instances, to make sure all of them are unified to the same instance.
-            for (ListIterator<WeakReference<TypeVar>> iter = this.unifiedVars.listIterator(); iter.hasNext();) {
-                TypeVar referer = iter.next().get();
-                if (referer == null) {
-                    iter.remove();
-                } else {
-                    referer.instance = other;
+
+            if (this.rank > other.rank) {
+                // the taller tree becomes the root, so it takes over the state of the other instance
+                this.name = other.name;
+                this.internal = other.internal;
+                this.isRigid = other.isRigid;
+                this.type = other.type;
+                this.constraints = other.constraints;
+                this.associatedTypeApps = other.associatedTypeApps;
+                other.parent = this;
+            } else {
+                if (this.rank == other.rank) {
+                    other.rank++;
                 }
+                this.parent = other;
             }
         }
 
@@ -192,9 +222,9 @@ public class TypeVar extends Type {
     }
 
     /**
-     * The reference to the potential concrete instance for this type.
+     * The reference to the potential concrete instance for this type, which may have been unified into another one.
      */
-    private TypeInstance instance;
+    private final TypeInstance node;
 
     /**
      * @param name The textual representation of the type variable.
@@ -215,21 +245,28 @@ public class TypeVar extends Type {
      * @param instance The concrete instance of this type, might be null.
      */
     private TypeVar(final String name, final boolean internal, final boolean isRigid, final ConstraintSet constraints, final ConcreteType type) {
-        this.instance = new TypeInstance(this, name.toLowerCase(), internal, isRigid, type, constraints);
+        this.node = new TypeInstance(name.toLowerCase(), internal, isRigid, type, constraints);
+    }
+
+    /**
+     * @return The type instance shared by all type variables unified with this one.
+     */
+    private TypeInstance instance() {
+        return this.node.find();
     }
 
     /**
      * @return The name of this variable type.
      */
     public final String getName() {
-        return this.instance.getName();
+        return this.instance().getName();
     }
 
     /**
      * @return Whether this type variable has been instantiated with a concrete type.
      */
     public final boolean hasConcreteInstance() {
-        return this.instance.isPresent();
+        return this.instance().isPresent();
     }
 
     /**
@@ -237,7 +274,7 @@ public class TypeVar extends Type {
      * @return The concrete type this type variable has been instantiated with.
      */
     public final ConcreteType getInstantiatedType() {
-        return this.instance.get();
+        return this.instance().get();
     }
 
     /*
@@ -246,7 +283,7 @@ public class TypeVar extends Type {
     * @param The concrete type this type variable is unified with
     */
     public final void setConcreteInstance(ConcreteType type) throws HaskellTypeError {
-        this.instance.set(type);
+        this.instance().set(type);
     }
 
     /**
@@ -255,12 +292,14 @@ public class TypeVar extends Type {
      * @throws HaskellTypeError if the combined constraint set of the type variables is not satisfiable. 
      */
     public final void unifyWith(TypeVar other) throws HaskellTypeError {
-        if (this.instance.isRigid) {
-            other.instance.unifyWith(this.instance);
-        } else if (other.instance.isRigid || this.instance.internal) {
-            this.instance.unifyWith(other.instance);
+        TypeInstance mine = this.instance();
+        TypeInstance theirs = other.instance();
+        if (mine.isRigid) {
+            theirs.unifyWith(mine);
+        } else if (theirs.isRigid || mine.internal) {
+            mine.unifyWith(theirs);
         } else {
-            other.instance.unifyWith(this.instance);
+            theirs.unifyWith(mine);
         }
     }
 
@@ -268,7 +307,7 @@ public class TypeVar extends Type {
      * @return The set of type class constraints associated with this type variable
      */
     public ConstraintSet getConstraints() {
-        return this.instance.constraints;
+        return this.instance().constraints;
     }
 
     /**
@@ -276,7 +315,7 @@ public class TypeVar extends Type {
      * @param typeClass to be added to this type variable
      */
     protected void introduceConstraint(TypeClass typeClass) {
-        this.instance.constraints.addExtraConstraint(typeClass);
+        this.instance().constraints.addExtraConstraint(typeClass);
     }
 
     /**
@@ -284,7 +323,7 @@ public class TypeVar extends Type {
      * @param constraints set to be added to this type variable
      */
     protected void introduceConstrainst(ConstraintSet constraints) {
-        this.instance.constraints.addExtraConstraint(constraints);
+        this.instance().constraints.addExtraConstraint(constraints);
     }
 
     /**
@@ -292,20 +331,20 @@ public class TypeVar extends Type {
      * @param typeapp to add
      */
 	protected void addConstrainedTypeApp(TypeApp typeapp) {
-		if (! this.instance.associatedTypeApps.contains(typeapp)) {
-			this.instance.associatedTypeApps.add(typeapp);
+		if (! this.instance().associatedTypeApps.contains(typeapp)) {
+			this.instance().associatedTypeApps.add(typeapp);
 		}
 	}
 
     @Override
     public final String prettyPrint(final int fixity) {
-        return this.instance.prettyPrint(fixity);
+        return this.instance().prettyPrint(fixity);
     }
 
     @Override
     protected String prettyPrintAppChain(int fixity, List<Type> args) {
-        if (this.instance.isPresent()) {
-            return this.instance.get().prettyPrintAppChain(fixity, args);
+        if (this.instance().isPresent()) {
+            return this.instance().get().prettyPrintAppChain(fixity, args);
         }
         
         return super.prettyPrintAppChain(fixity, args);
@@ -313,8 +352,8 @@ public class TypeVar extends Type {
 
     @Override
     public Type getFresh(TypeScope scope) {
-        if (this.instance.isPresent()) {
-            return this.instance.get().getFresh(scope);
+        if (this.instance().isPresent()) {
+            return this.instance().get().getFresh(scope);
         }
 
         return scope.pickFreshTypeVar(this);
@@ -326,22 +365,30 @@ public class TypeVar extends Type {
      * @return A refreshed type variable.
      */
     protected TypeVar pickFreshTypeVarInstance(IdentityHashMap<TypeVar.TypeInstance, TypeVar> staleToFresh) {
-        if (staleToFresh.containsKey(this.instance)) {
-            return staleToFresh.get(this.instance);
+        TypeInstance instance = this.instance();
+        if (staleToFresh.containsKey(instance)) {
+            return staleToFresh.get(instance);
         }
         
-        if (this.instance.isRigid) {
+        TypeVar fresh = this.freshCopy();
+        if (fresh != this) {
+            staleToFresh.put(instance, fresh);
+        }
+        return fresh;
+    }
+
+    /**
+     * @return A new type variable like this uninstantiated one, or this one itself if it is rigid.
+     */
+    TypeVar freshCopy() {
+        TypeInstance instance = this.instance();
+        if (instance.isRigid) {
             //FIXME this is a ugly workaround to make to rigid typevars unify with fresh copies of themselves
             //TODO remove this special case once type scoping is dealt with properly for whole lambdas
-            this.instance.unifiedVars = new LinkedList<>();
-            this.instance.unifiedVars.add(new WeakReference<>(this));
             return this;
         }
 
-        TypeVar fresh = new TypeVar(this.instance.name, this.instance.internal, this.instance.isRigid, this.instance.constraints.clone(), null);
-        staleToFresh.put(this.instance, fresh);
-        return fresh;
-       
+        return new TypeVar(instance.name, instance.internal, instance.isRigid, instance.constraints.clone(), null);
     }
 
     @Override
@@ -356,23 +403,25 @@ public class TypeVar extends Type {
 	@Override
     public boolean containsOccurenceOf(TypeVar tvar) {
         // If type variable share the same instance then they have been unified to a single one.
-        if (this.instance == tvar.instance) {
+        TypeInstance instance = this.instance();
+        if (instance == tvar.instance()) {
             return true;
         }
 
-        if (!this.instance.isPresent()) {
+        if (!instance.isPresent()) {
             return false;
         }
 
-        return this.instance.get().containsOccurenceOf(tvar);
+        return instance.get().containsOccurenceOf(tvar);
     }
 
     @Override
     public final String toString() {
-        String constr = this.instance.constraints.toString();
-        String fmt = this.instance.isRigid ? "forall %s.(%s)%s" : "%s(%s)%s";
-        String tmp = String.format(fmt, this.getName(), Integer.toHexString(this.instance.hashCode()), constr);
-        return this.instance.isPresent() ? tmp + ":" + this.instance.get().toString() : tmp;
+        TypeInstance instance = this.instance();
+        String constr = instance.constraints.toString();
+        String fmt = instance.isRigid ? "forall %s.(%s)%s" : "%s(%s)%s";
+        String tmp = String.format(fmt, this.getName(), Integer.toHexString(instance.hashCode()), constr);
+        return instance.isPresent() ? tmp + ":" + instance.get().toString() : tmp;
     }
 
     /**
@@ -391,7 +440,7 @@ public class TypeVar extends Type {
         }
 
         TypeVar other = (TypeVar) obj;
-        return this.instance == other.instance;
+        return this.instance() == other.instance();
     }
 
 }
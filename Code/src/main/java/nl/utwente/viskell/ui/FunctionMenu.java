@@ -247,7 +247,7 @@ public class FunctionMenu extends StackPane implements ComponentLoader {
 
         utilSpace.getChildren().addAll(closeButton, disBlockButton, arbBlockButton, valBlockButton, lambdaBlockButton, applyBlockButton, choiceBlockButton);
 
-        if (GhciSession.pickBackend() == GhciSession.Backend.GHCi) {
+        if (GhciSession.pickBackend() == GhciSession.Backend.GHCi || GhciSession.pickBackend() == GhciSession.Backend.Compiled) {
             // These blocks are specifically for GHCi
             Button rationalBlockButton = new MenuButton("Rational", bm -> addBlock(new SliderBlock(parent, false)));
             Button IntegerBlockButton = new MenuButton("Integer", bm -> addBlock(new SliderBlock(parent, true)));
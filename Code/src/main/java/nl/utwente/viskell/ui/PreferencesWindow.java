@@ -9,6 +9,7 @@ import javafx.scene.Scene;
 import javafx.scene.control.CheckBox;
 import javafx.scene.control.Button;
 import javafx.scene.control.ComboBox;
+import javafx.scene.control.TextField;
 import javafx.scene.layout.BorderPane;
 import javafx.stage.Stage;
 import nl.utwente.viskell.ghcj.GhciSession;
@@ -23,6 +24,9 @@ public class PreferencesWindow extends BorderPane implements ComponentLoader {
     private Preferences preferences;
 
     @FXML private ComboBox<GhciSession.Backend> ghci;
+    @FXML private ComboBox<Integer> poolSize;
+    @FXML private CheckBox incrementalUpload;
+    @FXML private TextField ghcPath;
     @FXML private ComboBox<String> background;
     @FXML private ComboBox<String> theme;
     @FXML private CheckBox scrollInversion;
@@ -47,6 +51,31 @@ public class PreferencesWindow extends BorderPane implements ComponentLoader {
             overlay.getToplevelPane().restartBackend();
         });
         
+        for (int i = 1; i <= Math.max(GhciSession.defaultPoolSize(), Runtime.getRuntime().availableProcessors()); i++) {
+            poolSize.getItems().add(i);
+        }
+        poolSize.getSelectionModel().select(Integer.valueOf(GhciSession.pickPoolSize()));
+        poolSize.valueProperty().addListener(event -> {
+            preferences.putInt("ghciPoolSize", poolSize.getValue());
+            overlay.getToplevelPane().restartBackend();
+        });
+        
+        incrementalUpload.setSelected(GhciSession.pickIncremental());
+        incrementalUpload.setOnAction(event -> {
+            preferences.putBoolean("incrementalUpload", incrementalUpload.isSelected());
+            overlay.getToplevelPane().restartBackend();
+        });
+        
+        ghcPath.setText(GhciSession.pickCompiler());
+        ghcPath.setOnAction(event -> {
+            if (ghcPath.getText().trim().isEmpty()) {
+                preferences.remove("ghcPath");
+            } else {
+                preferences.put("ghcPath", ghcPath.getText().trim());
+            }
+            overlay.getToplevelPane().restartBackend();
+        });
+        
         background.getItems().setAll(ImmutableList.of("/ui/grid.png", "/ui/light_grid.png", "/ui/white.png"));
         background.getSelectionModel().select(preferences.get("background", "/ui/grid.png"));
         background.valueProperty().addListener(event -> {
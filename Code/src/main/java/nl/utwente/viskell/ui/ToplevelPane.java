@@ -1,10 +1,12 @@
 package nl.utwente.viskell.ui;
 
 import com.google.common.collect.ImmutableMap;
+import javafx.application.Platform;
 import javafx.geometry.BoundingBox;
 import javafx.geometry.Bounds;
 import javafx.geometry.Point2D;
 import javafx.scene.Node;
+import javafx.scene.Scene;
 import javafx.scene.layout.Pane;
 import javafx.scene.layout.Region;
 import javafx.scene.shape.Path;
@@ -15,6 +17,7 @@ import nl.utwente.viskell.ui.components.*;
 import nl.utwente.viskell.ui.serialize.Bundleable;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -216,16 +219,106 @@ public class ToplevelPane extends Region implements BlockContainer, Bundleable {
             }
 
             List<Map<String, Object>> connectionsBundle = (ArrayList<Map<String, Object>>) layers.get(CONNECTIONS_SERIALIZED_NAME);
+            List<Connection> connections = new ArrayList<>();
             if (connectionsBundle != null) {
                 for (Map<String, Object> bundle : connectionsBundle) {
                     try {
-                        Connection.fromBundle(bundle, blockLookupTable);
+                        connections.add(Connection.fromBundle(bundle, blockLookupTable));
                     } catch (Exception e) {
                         e.printStackTrace();
                     }
                 }
             }
+
+            this.typecheckConnections(connections);
+        }
+    }
+
+    /**
+     * Typechecks new connections in the background, and shows the results on the JavaFX thread.
+     * Connected components of blocks share no type variables, so they are typechecked in parallel.
+     * Within a component the connections are unified one by one in the order they were made.
+     * @param connections The connections to typecheck, in the order they were made.
+     */
+    private void typecheckConnections(List<Connection> connections) {
+        if (connections.isEmpty()) {
+            return;
+        }
+
+        Collection<List<Connection>> components = groupByComponent(connections);
+        CompletableFuture.supplyAsync(() -> components.parallelStream()
+                .map(component -> component.stream().filter(c -> !typechecks(c)).collect(Collectors.toList()))
+                .flatMap(List::stream)
+                .collect(Collectors.toList())
+        ).thenAccept(failed -> Platform.runLater(() -> {
+            // the visual state is only to be touched on the JavaFX thread
+            failed.forEach(Connection::showTypeError);
+            for (Connection connection : connections) {
+                connection.invalidateVisualState();
+                connection.getEndAnchor().getBlock().invalidateVisualState();
+            }
+        }));
+    }
+
+    /**
+     * Unifies the types of a new connection, so that something going wrong with one connection leaves the others alone.
+     * @param connection The connection to typecheck.
+     * @return whether the connection typechecks.
+     */
+    private static boolean typechecks(Connection connection) {
+        try {
+            return connection.unifyTypes();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * @param connections The connections to group.
+     * @return The connections grouped by the connected components of the blocks they connect, each in the original order.
+     */
+    static Collection<List<Connection>> groupByComponent(List<Connection> connections) {
+        Map<Block, Block> parents = new HashMap<>();
+        for (Connection connection : connections) {
+            Block start = root(parents, connection.getStartAnchor().getBlock());
+            Block end = root(parents, connection.getEndAnchor().getBlock());
+            if (start != end) {
+                parents.put(start, end);
+            }
+        }
+
+        Map<Block, List<Connection>> components = new LinkedHashMap<>();
+        for (Connection connection : connections) {
+            Block root = root(parents, connection.getEndAnchor().getBlock());
+            components.computeIfAbsent(root, r -> new ArrayList<>()).add(connection);
+        }
+        return components.values();
+    }
+
+    /**
+     * @param parents The parent of every block in a component, that is not its root.
+     * @param block The block to look up.
+     * @return the root of the component of the block.
+     */
+    private static Block root(Map<Block, Block> parents, Block block) {
+        // blocks in containers share types with the block wrapping them
+        while (block.getContainer() instanceof WrappedContainer) {
+            block = ((WrappedContainer) block.getContainer()).getWrapper();
+        }
+
+        Block root = block;
+        while (parents.containsKey(root)) {
+            root = parents.get(root);
+        }
+
+        // shorten the path for later lookups
+        while (block != root) {
+            Block next = parents.get(block);
+            parents.put(block, root);
+            block = next;
         }
+        return root;
     }
 
     public Stream<BlockContainer> getAllBlockContainers() {
@@ -258,6 +351,20 @@ public class ToplevelPane extends Region implements BlockContainer, Bundleable {
         return this.localToScene(this.getBoundsInLocal());
     }
 
+    /**
+     * @param node a node somewhere on this pane.
+     * @return whether some part of the node is visible in the window, assumed true if the node is not shown yet.
+     */
+    public boolean isInViewport(Node node) {
+        Scene scene = node.getScene();
+        if (scene == null) {
+            return true;
+        }
+
+        Bounds viewport = new BoundingBox(0, 0, scene.getWidth(), scene.getHeight());
+        return viewport.intersects(node.localToScene(node.getBoundsInLocal()));
+    }
+
     /**
      * @param pos the position to look around in coordinate system of this pane. 
      * @param distance the maximum 'nearby' distance.
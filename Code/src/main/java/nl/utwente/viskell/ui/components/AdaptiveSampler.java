@@ -0,0 +1,163 @@
+package nl.utwente.viskell.ui.components;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Chooses where to sample a function for plotting it.
+ *
+ * Sampling starts with a coarse regular grid. After every round of samples,
+ * the intervals where the curve bends more than a fraction of its height, or
+ * where it jumps or stops being finite, are split in two. Refining stops when
+ * no interval needs it, or when there are as many samples as the plot is
+ * wide in pixels. Smooth functions thus take a few dozen samples, while sharp
+ * features still get resolved.
+ */
+final class AdaptiveSampler {
+    /** The number of intervals in the first, regular round of samples. */
+    static final int INITIAL_INTERVALS = 32;
+
+    /** The deviation from a straight line that needs refining, as a fraction of the height of the plot. */
+    private static final double TOLERANCE = 0.002;
+
+    /** The lowest x value. */
+    private final double min;
+
+    /** The highest x value. */
+    private final double max;
+
+    /** The maximum number of samples. */
+    private final int maxSamples;
+
+    /** The x values sampled so far, in increasing order. */
+    private double[] xs;
+
+    /** The function values at the sampled x values. */
+    private double[] ys;
+
+    /**
+     * @param min The lowest x value.
+     * @param max The highest x value.
+     * @param maxSamples The maximum number of samples, usually the width of the plot in pixels.
+     */
+    AdaptiveSampler(double min, double max, int maxSamples) {
+        this.min = min;
+        this.max = max;
+        this.maxSamples = Math.max(INITIAL_INTERVALS + 1, maxSamples);
+        this.xs = new double[0];
+        this.ys = new double[0];
+    }
+
+    /** @return the x values of the first round of samples. */
+    double[] start() {
+        double[] grid = new double[INITIAL_INTERVALS + 1];
+        for (int i = 0; i <= INITIAL_INTERVALS; i++) {
+            grid[i] = this.min + (this.max - this.min) * i / INITIAL_INTERVALS;
+        }
+        return grid;
+    }
+
+    /**
+     * Adds a round of samples, and decides where to sample next.
+     * @param newXs The x values of the round, as returned by start or the previous call.
+     * @param newYs The function values at those x values.
+     * @return the x values of the next round, empty if sampling is done.
+     */
+    double[] refine(double[] newXs, double[] newYs) {
+        this.merge(newXs, newYs);
+
+        int n = this.xs.length;
+        int budget = this.maxSamples - n;
+        double minWidth = (this.max - this.min) / this.maxSamples;
+        double tolerance = TOLERANCE * this.height();
+        if (budget <= 0 || n < 2) {
+            return new double[0];
+        }
+
+        // the badness of every interval between two consecutive samples
+        double[] badness = new double[n - 1];
+        for (int i = 1; i + 1 < n; i++) {
+            double t = (this.xs[i] - this.xs[i - 1]) / (this.xs[i + 1] - this.xs[i - 1]);
+            double line = this.ys[i - 1] + t * (this.ys[i + 1] - this.ys[i - 1]);
+            double deviation = Math.abs(this.ys[i] - line);
+            if (Double.isNaN(deviation)) {
+                // not finite around here, find out where that starts
+                deviation = Double.POSITIVE_INFINITY;
+            }
+            if (deviation > tolerance) {
+                badness[i - 1] = Math.max(badness[i - 1], deviation);
+                badness[i] = Math.max(badness[i], deviation);
+            }
+        }
+        for (int i = 0; i + 1 < n; i++) {
+            if (Double.isFinite(this.ys[i]) != Double.isFinite(this.ys[i + 1])) {
+                badness[i] = Double.POSITIVE_INFINITY;
+            }
+        }
+
+        List<Integer> candidates = new ArrayList<>();
+        for (int i = 0; i + 1 < n; i++) {
+            if (badness[i] > 0 && this.xs[i + 1] - this.xs[i] > minWidth) {
+                candidates.add(i);
+            }
+        }
+
+        // the worst intervals first, when not all of them fit in the budget
+        if (candidates.size() > budget) {
+            candidates.sort((a, b) -> Double.compare(badness[b], badness[a]));
+            candidates = candidates.subList(0, budget);
+            candidates.sort(null);
+        }
+
+        double[] next = new double[candidates.size()];
+        for (int k = 0; k < next.length; k++) {
+            int i = candidates.get(k);
+            next[k] = (this.xs[i] + this.xs[i + 1]) / 2;
+        }
+        return next;
+    }
+
+    /** @return the sampled x values, in increasing order. */
+    double[] getXs() {
+        return this.xs;
+    }
+
+    /** @return the function values at the sampled x values. */
+    double[] getYs() {
+        return this.ys;
+    }
+
+    /** @return the range of the finite function values sampled so far. */
+    private double height() {
+        double low = Double.POSITIVE_INFINITY;
+        double high = Double.NEGATIVE_INFINITY;
+        for (double y : this.ys) {
+            if (Double.isFinite(y)) {
+                low = Math.min(low, y);
+                high = Math.max(high, y);
+            }
+        }
+        return high > low ? high - low : 0;
+    }
+
+    /** Merges a round of samples with the samples so far, keeping them ordered by x. */
+    private void merge(double[] newXs, double[] newYs) {
+        int count = Math.min(newXs.length, newYs.length);
+        double[] mergedXs = new double[this.xs.length + count];
+        double[] mergedYs = new double[mergedXs.length];
+
+        int i = 0, j = 0, k = 0;
+        while (k < mergedXs.length) {
+            if (j >= count || (i < this.xs.length && this.xs[i] <= newXs[j])) {
+                mergedXs[k] = this.xs[i];
+                mergedYs[k++] = this.ys[i++];
+            } else {
+                mergedXs[k] = newXs[j];
+                mergedYs[k++] = newYs[j++];
+            }
+        }
+
+        this.xs = mergedXs;
+        this.ys = mergedYs;
+    }
+}
@@ -1,8 +1,17 @@
 package nl.utwente.viskell.ui.components;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
@@ -16,11 +25,32 @@ import nl.utwente.viskell.haskell.type.*;
 import nl.utwente.viskell.ui.ToplevelPane;
 import nl.utwente.viskell.ui.serialize.Bundleable;
 
-/** This variant of the ValueBlock uses QuickCheck to generate values based on the output type. */
+/**
+ * This variant of the ValueBlock uses QuickCheck to generate values based on the output type.
+ *
+ * Values are generated in batches per type, and kept in a buffer shared by all
+ * ArbitraryBlocks. Regenerating takes the next value from the buffer, which is
+ * refilled in the background when it runs low.
+ */
 public class ArbitraryBlock extends ValueBlock implements Bundleable {
     
     /** The button for getting the next randomly generated value */
     @FXML private Button rngTrigger; 
+
+    /** The number of QuickCheck samples in a batch, each giving 7 values of growing size. */
+    private static final int BATCH_SAMPLES = 4;
+
+    /** A batch is generated in the background when fewer values than this are left. */
+    private static final int LOW_WATER = 8;
+
+    /** The generated values that have not been used, by Haskell type. Only used on the JavaFX thread. */
+    private static final Map<String, Deque<String>> buffers = new HashMap<>();
+
+    /** The types for which a batch is being generated. Only used on the JavaFX thread. */
+    private static final Set<String> refilling = new HashSet<>();
+
+    /** The blocks waiting for the batch of a type, because its buffer was empty. Only used on the JavaFX thread. */
+    private static final Map<String, List<ArbitraryBlock>> waiting = new HashMap<>();
     
     /** The last type a for which a value has been generated, or empty is this block has no value. */
     private Optional<Type> lastGenType;
@@ -31,10 +61,10 @@ public class ArbitraryBlock extends ValueBlock implements Bundleable {
      */
     public ArbitraryBlock(ToplevelPane pane) {
         super("ArbitraryBlock", pane, pane.getEnvInstance().buildType("Arbitrary a => a"));
-        this.rngTrigger.setOnAction(event -> this.getNextValue(event.hashCode(), true));
+        this.rngTrigger.setOnAction(event -> this.getNextValue(true));
         this.lastGenType = Optional.empty();
         this.output.refreshType(new TypeScope());
-        this.getNextValue(this.hashCode(), false);
+        this.getNextValue(false);
     }
 
     @Override
@@ -48,7 +78,7 @@ public class ArbitraryBlock extends ValueBlock implements Bundleable {
         return arbitraryBlock;
     }
 
-    private void getNextValue(int seed, boolean fromClick) {
+    private void getNextValue(boolean fromClick) {
         Type outputType = this.output.getType(Optional.empty());
         if (! this.output.hasConnection()) {
             this.setValue("??");
@@ -96,30 +126,92 @@ public class ArbitraryBlock extends ValueBlock implements Bundleable {
         // now let QuickCheck try to generate an arbitrary value of this type
         this.lastGenType = Optional.of(type);
         GhciSession ghci = this.getToplevel().getGhciSession();
-        int genOffset = 2 + Math.abs(seed) % 7;
         String haskellType = type.prettyPrint(10);
-        ListenableFuture<String> result = ghci.pullRaw("fmap (!!" + genOffset + ") $ sample' (arbitrary :: Gen " + haskellType + ")");
+        Deque<String> buffer = buffers.computeIfAbsent(haskellType, t -> new ArrayDeque<>());
+
+        if (!buffer.isEmpty()) {
+            this.showGenerated(buffer.poll());
+            if (buffer.size() < LOW_WATER) {
+                refill(ghci, haskellType, GhciSession.Priority.Background);
+            }
+        } else {
+            // nothing to show until the batch is in, so it is needed right away
+            waiting.computeIfAbsent(haskellType, t -> new ArrayList<>()).add(this);
+            refill(ghci, haskellType, GhciSession.Priority.Interactive);
+        }
+    }
+
+    /** Shows a generated value, and propagates it. */
+    private void showGenerated(String value) {
+        this.setValue(value);
+        this.initiateConnectionChanges();
+    }
+
+    /**
+     * Generates a batch of values of a type, unless that is already underway.
+     * Must be called on the JavaFX thread.
+     * @param ghci The session to generate the values in.
+     * @param haskellType The type of the values.
+     * @param priority How urgently the values are needed.
+     */
+    private static void refill(GhciSession ghci, String haskellType, GhciSession.Priority priority) {
+        // the values of every sample are printed one per line, leaving out the smallest and largest ones
+        String gen = "Control.Monad.replicateM " + BATCH_SAMPLES + " (sample' (arbitrary :: Gen " + haskellType + "))"
+                + " >>= mapM_ print . concatMap (Data.List.take 7 . Data.List.drop 2)";
+
+        if (!refilling.add(haskellType)) {
+            if (priority == GhciSession.Priority.Interactive) {
+                // identical requests are shared, so asking again only raises the priority of the batch underway
+                ghci.pullRaw(gen, null, priority);
+            }
+            return;
+        }
+
+        ListenableFuture<String> result = ghci.pullRaw(gen, null, priority);
 
         Futures.addCallback(result, new FutureCallback<String>() {
             public void onSuccess(String s) {
                 // Can't call setOutput directly - this may not be JavaFX app thread.
                 // Instead, schedule setting the output.
                 Platform.runLater(() -> {
-                    ArbitraryBlock.this.setValue(s);
-                    // propagate the new generated value
-                    ArbitraryBlock.this.initiateConnectionChanges();
+                    refilling.remove(haskellType);
+                    Deque<String> buffer = buffers.computeIfAbsent(haskellType, t -> new ArrayDeque<>());
+                    Splitter.on('\n').trimResults().omitEmptyStrings().split(s).forEach(buffer::add);
+
+                    for (ArbitraryBlock block : takeWaiting(haskellType)) {
+                        if (buffer.isEmpty()) {
+                            block.setValue("...");
+                        } else {
+                            block.showGenerated(buffer.poll());
+                        }
+                    }
                 });
             }
 
             public void onFailure(Throwable throwable) {
-                Platform.runLater(() -> ArbitraryBlock.this.setValue("..."));
+                Platform.runLater(() -> {
+                    refilling.remove(haskellType);
+                    takeWaiting(haskellType).forEach(block -> block.setValue("..."));
+                });
             }
         });
     }
+
+    /** @return the blocks waiting for a value of a type that still want one, and stops them waiting. */
+    private static List<ArbitraryBlock> takeWaiting(String haskellType) {
+        List<ArbitraryBlock> blocks = waiting.remove(haskellType);
+        if (blocks == null) {
+            return ImmutableList.of();
+        }
+
+        // a block may have moved on to another type meanwhile
+        blocks.removeIf(block -> !block.lastGenType.isPresent() || !block.lastGenType.get().prettyPrint(10).equals(haskellType));
+        return blocks;
+    }
     
     @Override
     public void invalidateVisualState() {
-        this.getNextValue(5, false);
+        this.getNextValue(false);
         super.invalidateVisualState();
     }
     
@@ -1,5 +1,6 @@
 package nl.utwente.viskell.ui.components;
 
+import java.util.HashSet;
 import java.util.Set;
 
 import javafx.scene.control.Label;
@@ -36,8 +37,9 @@ public class BinderAnchor extends OutputAnchor {
     @Override
     public void initiateConnectionChanges() {
         // Starts a new (2 phase) change propagation process from this lambda.
-        container.handleConnectionChanges(false);
-        container.handleConnectionChanges(true);
+        Set<Block> refreshed = new HashSet<>();
+        container.handleConnectionChanges(false, refreshed);
+        container.handleConnectionChanges(true, refreshed);
     }
 
     @Override
@@ -46,8 +48,8 @@ public class BinderAnchor extends OutputAnchor {
     }
 
     @Override
-    protected void handleConnectionChanges(boolean finalPhase) {
-        this.container.handleConnectionChanges(finalPhase);
+    protected void handleConnectionChanges(boolean finalPhase, Set<Block> refreshed) {
+        this.container.handleConnectionChanges(finalPhase, refreshed);
     }
     
     @Override
@@ -146,10 +146,16 @@ public abstract class Block extends StackPane implements Bundleable, ComponentLo
     
     /**
      * Starts a new (2 phase) change propagation process from this block.
+     * 
+     * The propagation is limited to the blocks whose types can depend on the change. It stops at anchors
+     * with a closed type, a type without type variables that unification with connections can not change,
+     * and at connections from an anchor whose closed type is the same as in the previous propagation.
+     * Beyond those only the values change, so blocks downstream just refresh their visual state.
      */
     public final void initiateConnectionChanges() {
-        this.handleConnectionChanges(false);
-        this.handleConnectionChanges(true);
+        Set<Block> refreshed = new HashSet<>();
+        this.handleConnectionChanges(false, refreshed);
+        this.handleConnectionChanges(true, refreshed);
     }
     
     /**
@@ -161,6 +167,7 @@ public abstract class Block extends StackPane implements Bundleable, ComponentLo
         }
         this.freshAnchorTypes = true;
         this.refreshAnchorTypes();
+        this.recordClosedTypes();
 
         this.inValidContext = this.checkValidInCurrentContainer();
         if (this.inValidContext) {
@@ -175,13 +182,33 @@ public abstract class Block extends StackPane implements Bundleable, ComponentLo
      * Set fresh types in all anchors of this block for the next typechecking cycle.
      */
     protected abstract void refreshAnchorTypes();
+
+    /**
+     * Records which anchors have a closed type after refreshing, and so are not derived from their connections.
+     * Only simple blocks on the top level are considered, as other blocks have types and values following from elsewhere.
+     */
+    private void recordClosedTypes() {
+        boolean simple = this.container instanceof ToplevelPane && !this.hasInnerBlocks();
+        for (InputAnchor input : this.getAllInputs()) {
+            input.setClosedType(simple && input.getType().isGround());
+        }
+        for (OutputAnchor output : this.getAllOutputs()) {
+            output.setClosedType(simple && output.getType(Optional.empty()).isGround());
+        }
+    }
+
+    /** @return whether this block contains blocks whose types and values depend on the anchors of this block. */
+    protected boolean hasInnerBlocks() {
+        return false;
+    }
     
     /**
      * Handle the expression and types changes caused by modified connections or values.
      * Propagate the changes through connected blocks, and if final phase trigger a visual update.
      * @param finalPhase whether the change propagation is in the second (final) phase.
+     * @param refreshed the blocks refreshed for a change in value only by this propagation so far.
      */
-    public void handleConnectionChanges(boolean finalPhase) {
+    public void handleConnectionChanges(boolean finalPhase, Set<Block> refreshed) {
         if (this.updateInProgress != finalPhase) {
             return; // avoid doing extra work and infinite recursion
         }
@@ -196,15 +223,28 @@ public abstract class Block extends StackPane implements Bundleable, ComponentLo
         
         // First make sure that all connected inputs will be updated too.        
         for (InputAnchor input : this.getAllInputs()) {
-            input.getConnection().ifPresent(c -> c.handleConnectionChangesUpwards(finalPhase));
+            input.getConnection().ifPresent(c -> c.handleConnectionChangesUpwards(finalPhase, refreshed));
         }
         
         // propagate changes down from the output anchor to connected inputs
-        this.getAllOutputs().stream().forEach(output -> output.getOppositeAnchors().forEach(input -> input.handleConnectionChanges(finalPhase)));
+        for (OutputAnchor output : this.getAllOutputs()) {
+            for (InputAnchor input : output.getOppositeAnchors()) {
+                Optional<Connection> connection = input.getConnection();
+                if (input.hasClosedType() || (connection.isPresent() && connection.get().carriesValueOnly(finalPhase))) {
+                    // the type of the input can not depend on this block, only its value can
+                    connection.ifPresent(c -> c.checkTypes(finalPhase));
+                    if (finalPhase) {
+                        input.block.invalidateDownstream(refreshed);
+                    }
+                } else {
+                    input.handleConnectionChanges(finalPhase, refreshed);
+                }
+            }
+        }
         
         // propagate changes to the outside of a choiceblock
         if (container instanceof Lane) {
-            ((Lane)container).handleConnectionChanges(finalPhase);
+            ((Lane)container).handleConnectionChanges(finalPhase, refreshed);
         }
         
         if (finalPhase) {
@@ -213,6 +253,32 @@ public abstract class Block extends StackPane implements Bundleable, ComponentLo
         }
     }
     
+    /**
+     * Refreshes the visual state of this block and the blocks downstream, for a change in value that left their types alone.
+     * @param refreshed the blocks already refreshed in this propagation.
+     */
+    private void invalidateDownstream(Set<Block> refreshed) {
+        if (! refreshed.add(this)) {
+            return;
+        }
+        
+        Platform.runLater(this::invalidateVisualState);
+        for (OutputAnchor output : this.getAllOutputs()) {
+            for (InputAnchor input : output.getOppositeAnchors()) {
+                if (input.getContainer() instanceof ToplevelPane && !input.block.hasInnerBlocks()) {
+                    input.block.invalidateDownstream(refreshed);
+                } else {
+                    // the change reaches inside a container, leave that to a full propagation after this one
+                    Platform.runLater(() -> {
+                        Set<Block> later = new HashSet<>();
+                        input.handleConnectionChanges(false, later);
+                        input.handleConnectionChanges(true, later);
+                    });
+                }
+            }
+        }
+    }
+    
     /**
      * @param outsideAnchors the set being accumulated of out-of-reach OutputAnchors that are required for the expression.
      * @return The expression this block represents.
@@ -293,13 +359,15 @@ public abstract class Block extends StackPane implements Bundleable, ComponentLo
             }
             
             if (source instanceof WrappedContainer) {
-                ((WrappedContainer)source).handleConnectionChanges(false);
-                ((WrappedContainer)source).handleConnectionChanges(true);
+                Set<Block> refreshed = new HashSet<>();
+                ((WrappedContainer)source).handleConnectionChanges(false, refreshed);
+                ((WrappedContainer)source).handleConnectionChanges(true, refreshed);
             }
             
             if (target instanceof WrappedContainer) {
-                ((WrappedContainer)target).handleConnectionChanges(false);
-                ((WrappedContainer)target).handleConnectionChanges(true);
+                Set<Block> refreshed = new HashSet<>();
+                ((WrappedContainer)target).handleConnectionChanges(false, refreshed);
+                ((WrappedContainer)target).handleConnectionChanges(true, refreshed);
             }
             
             this.initiateConnectionChanges();
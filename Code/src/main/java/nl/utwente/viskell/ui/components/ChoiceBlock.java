@@ -119,11 +119,11 @@ public class ChoiceBlock extends Block {
         }
     }
 
-    public void handleConnectionChanges(boolean finalPhase) {
-        lanes.forEach(lane -> lane.handleConnectionChanges(finalPhase));
+    public void handleConnectionChanges(boolean finalPhase, Set<Block> refreshed) {
+        lanes.forEach(lane -> lane.handleConnectionChanges(finalPhase, refreshed));
 
         // continue as normal with propagating changes on the outside
-        super.handleConnectionChanges(finalPhase);
+        super.handleConnectionChanges(finalPhase, refreshed);
     }
     
     @Override
@@ -159,6 +159,11 @@ public class ChoiceBlock extends Block {
         return true;
     }
 
+    @Override
+    protected boolean hasInnerBlocks() {
+        return true;
+    }
+
     /** Adds an alternative to this block */
     public void addLane() {
         Lane lane = new Lane(this);
@@ -1,5 +1,6 @@
 package nl.utwente.viskell.ui.components;
 
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
@@ -54,12 +55,27 @@ public class Connection extends CubicCurve implements
     /** Whether this connection is impossible due to scope restrictions */
     private boolean scopeError;
 
+    /** The closed type of the output anchor seen by the latest first phase of a change propagation, or null. */
+    private String sourceType;
+
+    /** Whether the latest change propagation only changed the value passing through this connection. */
+    private boolean valueOnly;
+
     /** 
      * Construct a new Connection.
      * @param source The OutputAnchor this connection comes from
      * @param sink The InputAnchor this connection goes to
      */
     public Connection(OutputAnchor source, InputAnchor sink) {
+        this(source, sink, true);
+    }
+
+    /** 
+     * @param source The OutputAnchor this connection comes from
+     * @param sink The InputAnchor this connection goes to
+     * @param typecheck Whether to typecheck the new connection, otherwise the caller has to.
+     */
+    private Connection(OutputAnchor source, InputAnchor sink, boolean typecheck) {
         this.setMouseTransparent(true);
         this.setFill(null);
         
@@ -76,13 +92,33 @@ public class Connection extends CubicCurve implements
         this.endAnchor.localToSceneTransformProperty().addListener(this);
 
         // typecheck the new connection to mark potential errors at the best location
+        if (typecheck && !this.unifyTypes()) {
+            this.showTypeError();
+        }
+    }
+
+    /**
+     * Unifies the types of both anchors of a new connection. This leaves the visual state alone,
+     * so it may be done on another thread, as long as nothing else uses these types meanwhile.
+     * @return whether the types could be unified.
+     */
+    public boolean unifyTypes() {
+        // a connection from a polymorphic anchor gets its copy of the type only now,
+        // after the connections made before it have been unified
+        this.startAnchor.refreshConnectionType(this);
         try {
             TypeChecker.unify("new connection", this.startAnchor.getType(Optional.of(this)), this.endAnchor.getType());
+            return true;
         } catch (HaskellTypeError e) {
-            this.endAnchor.setErrorState(true);
-            this.errorState = true;
+            return false;
         }
     }
+
+    /** Marks this connection as not typechecking. */
+    public void showTypeError() {
+        this.endAnchor.setErrorState(true);
+        this.errorState = true;
+    }
     
     /**
      * @return the output anchor of this connection.
@@ -102,13 +138,48 @@ public class Connection extends CubicCurve implements
      * Handles the upward connections changes through an connection.
      * Also perform typechecking for this connection.
      * @param finalPhase whether the change propagation is in the second (final) phase.
+     * @param refreshed the blocks refreshed for a change in value only by this propagation so far.
      */
-    public void handleConnectionChangesUpwards(boolean finalPhase) {
+    public void handleConnectionChangesUpwards(boolean finalPhase, Set<Block> refreshed) {
+        if (this.startAnchor.hasClosedType()) {
+            // the output anchor type can not depend on this connection, and values do not flow upwards
+            this.checkTypes(finalPhase);
+            return;
+        }
+        
         // first make sure the output anchor block and types are fresh
         if (!finalPhase) {
             this.startAnchor.prepareConnectionChanges();
         }
 
+        this.checkTypes(finalPhase);
+
+        // continue with propagating connections changes in the output anchor block 
+        this.startAnchor.handleConnectionChanges(finalPhase, refreshed);
+    }
+
+    /**
+     * Checks whether a change propagation only changes the value passing through this connection, because the
+     * output anchor has the same closed type as in the previous propagation. The first phase decides, and the
+     * final phase follows that decision, so both phases take the same route.
+     * @param finalPhase whether the change propagation is in the second (final) phase.
+     * @return whether the type of the input anchor can not have changed through this connection.
+     */
+    protected boolean carriesValueOnly(boolean finalPhase) {
+        if (! finalPhase) {
+            String type = this.startAnchor.hasClosedType() && !this.errorState
+                    ? this.startAnchor.getType(Optional.of(this)).prettyPrint() : null;
+            this.valueOnly = type != null && type.equals(this.sourceType);
+            this.sourceType = type;
+        }
+        return this.valueOnly;
+    }
+
+    /**
+     * Unifies the types of both anchors, and shows whether that succeeded.
+     * @param finalPhase whether the change propagation is in the second (final) phase.
+     */
+    protected void checkTypes(boolean finalPhase) {
         // for connections in error state typechecking is delayed to the final phase to keep error locations stable
         if (finalPhase == this.errorState) {
             try {
@@ -124,9 +195,6 @@ public class Connection extends CubicCurve implements
                 this.errorState = true;
             }
         }
-
-        // continue with propagating connections changes in the output anchor block 
-        this.startAnchor.handleConnectionChanges(finalPhase);
     }
 
     /**
@@ -139,10 +207,11 @@ public class Connection extends CubicCurve implements
         this.endAnchor.removeConnections();
         this.startAnchor.getPane().removeConnection(this);
         // propagate the connection changes of both anchors simultaneously in two phases to avoid duplicate work 
-        this.startAnchor.handleConnectionChanges(false);
-        this.endAnchor.handleConnectionChanges(false);
-        this.startAnchor.handleConnectionChanges(true);
-        this.endAnchor.handleConnectionChanges(true);
+        Set<Block> refreshed = new HashSet<>();
+        this.startAnchor.handleConnectionChanges(false, refreshed);
+        this.endAnchor.handleConnectionChanges(false, refreshed);
+        this.startAnchor.handleConnectionChanges(true, refreshed);
+        this.endAnchor.handleConnectionChanges(true, refreshed);
     }
 
     @Override
@@ -169,7 +238,11 @@ public class Connection extends CubicCurve implements
         return bundle.build();
     }
 
-    public static void fromBundle(Map<String,Object> connectionBundle,
+    /**
+     * Restores a connection, leaving its typechecking to the caller.
+     * @return the new connection.
+     */
+    public static Connection fromBundle(Map<String,Object> connectionBundle,
                                         Map<Integer, Block> blockLookupTable) {
         Map<String,Object> source = (Map<String,Object>)connectionBundle.get(SOURCE_LABEL);
         Integer sourceId = ((Double)source.get(ConnectionAnchor.BLOCK_LABEL)).intValue();
@@ -182,9 +255,7 @@ public class Connection extends CubicCurve implements
         Block sinkBlock = blockLookupTable.get(sinkId);
         InputAnchor sinkAnchor = sinkBlock.getAllInputs().get(sinkAnchorNumber);
 
-        Connection connection = new Connection(sourceAnchor, sinkAnchor);
-        connection.invalidateVisualState();
-        sinkBlock.invalidateVisualState();
+        return new Connection(sourceAnchor, sinkAnchor, false);
     }
 
     /**
@@ -10,6 +10,8 @@ import nl.utwente.viskell.ui.ComponentLoader;
 import nl.utwente.viskell.ui.ToplevelPane;
 import nl.utwente.viskell.ui.serialize.Bundleable;
 
+import java.util.Set;
+
 /**
  * Represents an anchor of a Block that can connect to (1 or more) Connections.
  * 
@@ -34,11 +36,15 @@ public abstract class ConnectionAnchor extends StackPane implements ComponentLoa
     /** The block this ConnectionAnchor belongs to. */
     protected Block block;
 
+    /** Whether the type of this anchor had no type variables when its block last refreshed, so connections can not change it. */
+    private boolean closedType;
+
     /**
      * @param block The block this ConnectionAnchor belongs to.
      */
     public ConnectionAnchor(Block block) {
         this.block = block;
+        this.closedType = false;
         this.wireInProgress = null;
         this.eventRedirectionTarget = null;
 
@@ -99,15 +105,33 @@ public abstract class ConnectionAnchor extends StackPane implements ComponentLoa
      */
     public abstract BlockContainer getContainer();
 
+    /**
+     * @return The block this anchor belongs to.
+     */
+    public final Block getBlock() {
+        return this.block;
+    }
+
     /** 
      * Handle the Connection changes for the Block this anchor is attached to.
      * @param finalPhase whether the change propagation is in the second (final) phase.
+     * @param refreshed the blocks refreshed for a change in value only by this propagation so far.
      */
-    protected void handleConnectionChanges(boolean finalPhase) {
-        this.block.handleConnectionChanges(finalPhase);
+    protected void handleConnectionChanges(boolean finalPhase, Set<Block> refreshed) {
+        this.block.handleConnectionChanges(finalPhase, refreshed);
     }
 
     public abstract Type getFreshType(); 
+
+    /** @return whether the type of this anchor is closed, and so does not depend on its connections. */
+    public final boolean hasClosedType() {
+        return this.closedType;
+    }
+
+    /** @param closed whether the type of this anchor is closed after refreshing it. */
+    protected final void setClosedType(boolean closed) {
+        this.closedType = closed;
+    }
     
     private void handleMousePress(MouseEvent event) {
         if (this.wireInProgress == null && this.eventRedirectionTarget == null && !event.isSynthesized()) {
@@ -11,14 +11,18 @@ import javafx.scene.control.Label;
 import javafx.scene.layout.Pane;
 import nl.utwente.viskell.ghcj.GhciSession;
 import nl.utwente.viskell.ghcj.HaskellException;
+import nl.utwente.viskell.ghcj.OutputListener;
 import nl.utwente.viskell.haskell.expr.*;
 import nl.utwente.viskell.haskell.type.*;
+import nl.utwente.viskell.ui.Main;
 import nl.utwente.viskell.ui.ToplevelPane;
 
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.prefs.Preferences;
 
 /**
  * DisplayBlock is an extension of {@link Block} that only provides a display of
@@ -40,6 +44,51 @@ public class DisplayBlock extends Block implements ConnectionAnchor.Target {
     
     /** Show class constrained type variable for the input anchor */
     private final Type showConstraint;
+
+    /** The output of the latest evaluation for this block, as far as it has arrived. */
+    private Output output;
+
+    /** Collects the output of an evaluation as it is streamed, and shows it on the JavaFX thread. */
+    private final class Output implements OutputListener {
+        /** The output that has arrived so far. */
+        private final StringBuilder text = new StringBuilder();
+
+        /** Whether showing the output is already scheduled. */
+        private boolean scheduled = false;
+
+        /** Whether the output went over the budget. */
+        private boolean truncated = false;
+
+        @Override
+        public synchronized void onOutput(String chunk) {
+            this.text.append(chunk);
+            if (!this.scheduled) {
+                // coalesce the chunks that arrive before the JavaFX thread gets to them
+                this.scheduled = true;
+                Platform.runLater(this::show);
+            }
+        }
+
+        @Override
+        public synchronized void onTruncated() {
+            this.truncated = true;
+        }
+
+        /** Shows the output so far, unless a newer evaluation has taken over. */
+        private synchronized void show() {
+            this.scheduled = false;
+            if (output == this) {
+                value.setText(this.text.toString().trim() + (this.truncated ? " …" : ""));
+            }
+        }
+
+        /** Shows the final result, unless a newer evaluation has taken over. */
+        private synchronized void finish(String result) {
+            if (output == this) {
+                value.setText(result + (this.truncated ? " …" : ""));
+            }
+        }
+    }
             
     /**
      * Creates a new instance of DisplayBlock.
@@ -73,28 +122,40 @@ public class DisplayBlock extends Block implements ConnectionAnchor.Target {
             
                 GhciSession ghci = getToplevel().getGhciSession();
 
-                Expression expr = inputAnchor.getFullExpr();
+                LetExpression graph = inputAnchor.getFullExpr();
+                // in incremental mode only the body is evaluated, the bindings are uploaded separately
+                Expression expr = ghci.isIncremental() ? graph.getBody() : graph;
                 Type type = inputAnchor.getType().getConcrete();
                 if (type instanceof TypeApp) {
                     List<Type> tapps = ((TypeApp)type).asFlattenedAppChain();
                     if (tapps.get(0) instanceof ListTypeCon) {
                         // add an extra take on lists, so we don't try to fully eval infinite ones
                         FunVar take = new FunVar(this.getToplevel().getEnvInstance().lookupFun("take"));
-                        expr = new Apply (new Apply(take, new Value(Type.con("Int"), "32")), expr);
+                        expr = new Apply (new Apply(take, new Value(Type.con("Int"), Integer.toString(pickElementBudget()))), expr);
                     }
                 }
                 
-                ListenableFuture<String> result = ghci.pull(expr);
+                // a newer pull for this block supersedes one that is still pending
+                GhciSession.Priority priority = getToplevel().isInViewport(this) ? GhciSession.Priority.Interactive : GhciSession.Priority.OffScreen;
+                // the value is shown as it arrives, and evaluation stops once it gets too big to show
+                Output streamed = new Output();
+                this.output = streamed;
+                long budget = pickByteBudget();
+                ListenableFuture<String> result = ghci.isIncremental()
+                        ? ghci.pullIncremental(graph, expr.toHaskell(), this, priority, streamed, budget)
+                        : ghci.pullStream(expr.toHaskell(), this, priority, streamed, budget);
 
                 Futures.addCallback(result, new FutureCallback<String>() {
                     public void onSuccess(String s) {
                         // Can't call setOutput directly - this may not be JavaFX app thread.
                         // Instead, schedule setting the output.
-                        Platform.runLater(() -> value.setText(s));
+                        Platform.runLater(() -> streamed.finish(s));
                     }
 
                     public void onFailure(Throwable throwable) {
-                        if (throwable instanceof HaskellException && "Open expression".equals(throwable.getMessage())) {
+                        if (throwable instanceof CancellationException) {
+                            // Superseded, the newer request will set the output.
+                        } else if (throwable instanceof HaskellException && "Open expression".equals(throwable.getMessage())) {
                             Platform.runLater(() -> value.setText("unfinished?"));
                         } else {
                             Platform.runLater(() -> value.setText("?!?!?!"));
@@ -103,14 +164,28 @@ public class DisplayBlock extends Block implements ConnectionAnchor.Target {
                 });
 
             } catch (HaskellTypeError e) {
+                this.output = null;
                 value.setText("_ :: " + inputAnchor.getStringType());
             }
             
         } else {
+            this.output = null;
             value.setText("?");
         }
     }
     
+    /** @return the number of bytes of a value to show at most, according to the preferences. */
+    private static long pickByteBudget() {
+        Preferences prefs = Preferences.userNodeForPackage(Main.class);
+        return prefs.getLong("displayBytes", 4096);
+    }
+
+    /** @return the number of elements of a list to show at most, according to the preferences. */
+    private static int pickElementBudget() {
+        Preferences prefs = Preferences.userNodeForPackage(Main.class);
+        return prefs.getInt("displayElements", 32);
+    }
+
     //TODO NOTE: only used for a meaningless test
     public String getOutput() {
         return value.getText();
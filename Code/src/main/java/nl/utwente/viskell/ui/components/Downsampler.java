@@ -0,0 +1,76 @@
+package nl.utwente.viskell.ui.components;
+
+/**
+ * Reduces the number of points of a line plot while keeping its visual shape,
+ * using the largest-triangle-three-buckets algorithm by Sveinn Steinarsson.
+ *
+ * The first and last points are always kept. The points in between are divided
+ * into buckets, and from every bucket the point is kept that makes the largest
+ * triangle with the point kept from the previous bucket and the average of the
+ * next bucket. Peaks and jumps thus survive, while straight stretches thin out.
+ */
+final class Downsampler {
+    private Downsampler() {
+    }
+
+    /**
+     * @param xs The x values, in increasing order.
+     * @param ys The y values.
+     * @param threshold The maximum number of points to keep, at least 3.
+     * @return the indices of the points to keep, in increasing order.
+     */
+    static int[] largestTriangleThreeBuckets(double[] xs, double[] ys, int threshold) {
+        int n = xs.length;
+        if (threshold >= n || threshold < 3) {
+            int[] all = new int[n];
+            for (int i = 0; i < n; i++) {
+                all[i] = i;
+            }
+            return all;
+        }
+
+        int[] kept = new int[threshold];
+        double bucketSize = (double) (n - 2) / (threshold - 2);
+        int previous = 0;
+        kept[0] = 0;
+
+        for (int b = 0; b < threshold - 2; b++) {
+            // the average of the next bucket, or the last point for the last bucket
+            int nextStart = (int) ((b + 1) * bucketSize) + 1;
+            int nextEnd = Math.min((int) ((b + 2) * bucketSize) + 1, n);
+            double avgX = 0;
+            double avgY = 0;
+            for (int i = nextStart; i < nextEnd; i++) {
+                avgX += xs[i];
+                avgY += ys[i];
+            }
+            int count = nextEnd - nextStart;
+            if (count > 0) {
+                avgX /= count;
+                avgY /= count;
+            } else {
+                avgX = xs[n - 1];
+                avgY = ys[n - 1];
+            }
+
+            int start = (int) (b * bucketSize) + 1;
+            int end = nextStart;
+            double largest = -1;
+            int chosen = start;
+            for (int i = start; i < end; i++) {
+                double area = Math.abs((xs[previous] - avgX) * (ys[i] - ys[previous])
+                                     - (xs[previous] - xs[i]) * (avgY - ys[previous]));
+                if (area > largest) {
+                    largest = area;
+                    chosen = i;
+                }
+            }
+
+            kept[b + 1] = chosen;
+            previous = chosen;
+        }
+
+        kept[threshold - 1] = n - 1;
+        return kept;
+    }
+}
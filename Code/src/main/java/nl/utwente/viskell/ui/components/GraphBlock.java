@@ -1,7 +1,10 @@
 package nl.utwente.viskell.ui.components;
 
-import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
@@ -10,15 +13,17 @@ import javafx.scene.chart.NumberAxis;
 import javafx.scene.chart.XYChart;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.Pane;
+import nl.utwente.viskell.ghcj.DoubleEncoding;
 import nl.utwente.viskell.ghcj.GhciSession;
 import nl.utwente.viskell.haskell.expr.Expression;
+import nl.utwente.viskell.haskell.expr.LetExpression;
 import nl.utwente.viskell.haskell.type.FunType;
 import nl.utwente.viskell.haskell.type.Type;
 import nl.utwente.viskell.haskell.type.TypeScope;
 import nl.utwente.viskell.ui.ToplevelPane;
 
 import java.util.*;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CancellationException;
 
 /**
  * Block that accepts a (Float -> Float) function to be displayed on a linechart
@@ -40,6 +45,15 @@ public class GraphBlock extends Block {
     /** NuberAxis for y. */
     @FXML private NumberAxis y;
 
+    /** Counts the evaluations of this block, so results that are overtaken by a newer one are dropped. */
+    private volatile long generation;
+
+    /** The maximum number of samples when the width of the chart is not known yet. */
+    private static final int DEFAULT_SAMPLES = 500;
+
+    /** The maximum number of points handed to the chart, each of which becomes a node in the scene graph. */
+    private static final int MAX_POINTS = 200;
+
     /**
      * Constructs a new GraphBlock.
      * @param pane The CustomUIPane on which this Block resides.
@@ -48,6 +62,10 @@ public class GraphBlock extends Block {
         super(pane);
         loadFXML("GraphBlock");
 
+        // a line without a node for every data point
+        chart.setCreateSymbols(false);
+        chart.setAnimated(false);
+
         input = new InputAnchor(this);
         input.layoutXProperty().bind(inputSpace.widthProperty().divide(2));
         inputSpace.getChildren().setAll(input);
@@ -96,30 +114,102 @@ public class GraphBlock extends Block {
             return;
         }
         
-        ObservableList<XYChart.Series<Double, Double>> lineChartData = FXCollections.observableArrayList();
+        // no more samples than there are pixels to show them
+        int width = (int) x.getWidth();
+        AdaptiveSampler sampler = new AdaptiveSampler(x.getLowerBound(), x.getUpperBound(), width > 0 ? width : DEFAULT_SAMPLES);
+        LetExpression graph = this.getAllInputs().get(0).getFullExpr();
+
+        // later rounds are started from the evaluator threads, so everything they need is gathered here
+        GhciSession ghciSession = getToplevel().getGhciSession();
+        // in incremental mode the bindings of the function are uploaded, and compiled by the compiled backend,
+        // otherwise the function is inlined rather than pushed, so unchanged plots come from the result cache
+        String function = ghciSession.isIncremental() ? graph.getBody().toHaskell() : graph.toHaskell();
+
+        // the previous plot stays until the new one is in
+        long current = ++this.generation;
+        this.sample(current, ghciSession, graph, function, sampler, sampler.start());
+    }
+
+    /**
+     * Evaluates the function in a round of samples, and continues with the next round when the results are in.
+     * @param evaluation The generation of the evaluation, rounds of older evaluations are abandoned.
+     * @param ghciSession The session to evaluate in.
+     * @param graph The expression graph of the function.
+     * @param function The Haskell code of the function, the body of the graph in incremental mode.
+     * @param sampler Decides where to sample.
+     * @param xs The x values to sample in this round.
+     */
+    private void sample(long evaluation, GhciSession ghciSession, LetExpression graph, String function, AdaptiveSampler sampler, double[] xs) {
+        if (evaluation != this.generation) {
+            return;
+        }
 
-        double step = 0.01;
-        double min = x.getLowerBound();
-        double max = x.getUpperBound();
+        StringBuilder points = new StringBuilder(" [");
+        for (int i = 0; i < xs.length; i++) {
+            points.append(i > 0 ? "," : "").append(xs[i]);
+        }
+        points.append(']');
+
+        String expr = DoubleEncoding.show("map " + function + points);
+        ListenableFuture<String> results = ghciSession.isIncremental()
+                ? ghciSession.pullIncremental(graph, expr, this)
+                : ghciSession.pullCached(expr, this);
+
+        Futures.addCallback(results, new FutureCallback<String>() {
+            public void onSuccess(String s) {
+                try {
+                    // decoded and refined off the JavaFX thread, only the chart is updated on it
+                    double[] next = sampler.refine(xs, DoubleEncoding.read(s));
+                    if (next.length > 0) {
+                        sample(evaluation, ghciSession, graph, function, sampler, next);
+                    } else {
+                        Platform.runLater(() -> showPlot(evaluation, sampler.getXs(), sampler.getYs()));
+                    }
+                } catch (NumberFormatException e) {
+                    Platform.runLater(() -> showPlot(evaluation, new double[0], new double[0]));
+                }
+            }
 
-        try {
-            GhciSession ghciSession = getToplevel().getGhciSession();
-            String funName = "graph_fun_" + Integer.toHexString(this.hashCode());
-            ghciSession.push(funName, this.getAllInputs().get(0).getFullExpr());
-            String range = String.format(Locale.US, " [%f,%f..%f]", min, min+step, max);
-            String results = ghciSession.pullRaw("putStrLn $ unwords $ map show $ map " + funName + range).get();
+            public void onFailure(Throwable throwable) {
+                if (!(throwable instanceof CancellationException)) {
+                    // Pretend we didn't hear anything.
+                    Platform.runLater(() -> showPlot(evaluation, new double[0], new double[0]));
+                }
+            }
+        });
+    }
 
-            LineChart.Series<Double, Double> series = new LineChart.Series<>();
-            ObservableList<XYChart.Data<Double, Double>> data = series.getData();
-            Iterator<String> v = Splitter.on(' ').split(results).iterator();
+    /**
+     * Replaces the plot by the result of an evaluation, unless a newer evaluation was started since.
+     * @param evaluation The generation of the evaluation.
+     * @param xs The x values, in increasing order.
+     * @param ys The y values, an empty array for no plot.
+     */
+    private void showPlot(long evaluation, double[] xs, double[] ys) {
+        if (evaluation != this.generation) {
+            return;
+        }
 
-            for (double i = min; i < max; i += step) {
-                data.add(new XYChart.Data<>(i, Double.valueOf(v.next())));
+        // the chart can not draw values that are not finite
+        int n = 0;
+        double[] finiteXs = new double[ys.length];
+        double[] finiteYs = new double[ys.length];
+        for (int i = 0; i < ys.length; i++) {
+            if (Double.isFinite(ys[i])) {
+                finiteXs[n] = xs[i];
+                finiteYs[n++] = ys[i];
             }
+        }
+        finiteXs = Arrays.copyOf(finiteXs, n);
+        finiteYs = Arrays.copyOf(finiteYs, n);
 
-            lineChartData.add(series);
-        } catch (NoSuchElementException | NumberFormatException | InterruptedException | ExecutionException ignored) {
-            // Pretend we didn't hear anything.
+        ObservableList<XYChart.Series<Double, Double>> lineChartData = FXCollections.observableArrayList();
+        if (n > 0) {
+            List<XYChart.Data<Double, Double>> points = new ArrayList<>();
+            for (int i : Downsampler.largestTriangleThreeBuckets(finiteXs, finiteYs, MAX_POINTS)) {
+                points.add(new XYChart.Data<>(finiteXs[i], finiteYs[i]));
+            }
+            lineChartData.add(new LineChart.Series<>(FXCollections.observableArrayList(points)));
         }
 
         chart.setData(lineChartData);
@@ -182,7 +182,7 @@ public class InputAnchor extends ConnectionAnchor implements ConnectionAnchor.Ta
      * This function assumes that the function is in the top level container.
      * @return The full expression carried by the connection connected to this anchor.
      */
-    public Expression getFullExpr() {
+    public LetExpression getFullExpr() {
         Set<OutputAnchor> outsideAnchors = new HashSet<>();
         LetExpression fullExpr = new LetExpression(this.getLocalExpr(outsideAnchors), false);
         
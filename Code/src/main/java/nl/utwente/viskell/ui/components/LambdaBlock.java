@@ -191,22 +191,22 @@ public class LambdaBlock extends Block {
     @Override
     public void refreshAnchorTypes() {
         // do typechecking internal connections first so that the lambda type is inferred
-        body.handleConnectionChanges(false);
+        body.handleConnectionChanges(false, new HashSet<>());
 
         fun.setExactRequiredType(explicitSignature.orElse(body.getLambdaType()).getFresh());
     }
 
-    public void handleConnectionChanges(boolean finalPhase) {
+    public void handleConnectionChanges(boolean finalPhase, Set<Block> refreshed) {
         // first propagate into the internals
-        this.body.handleConnectionChanges(finalPhase);
+        this.body.handleConnectionChanges(finalPhase, refreshed);
 
         // also users of this function block need to be updated
         for (LocalDefUse user : this.allDefinitionUsers) {
-            user.handleConnectionChanges(finalPhase);
+            user.handleConnectionChanges(finalPhase, refreshed);
         }
         
         // continue as normal with propagating changes on the outside
-        super.handleConnectionChanges(finalPhase);
+        super.handleConnectionChanges(finalPhase, refreshed);
     }
     
     @Override
@@ -226,6 +226,11 @@ public class LambdaBlock extends Block {
     public boolean belongsOnBottom() {
         return true;
     }
+
+    @Override
+    protected boolean hasInnerBlocks() {
+        return true;
+    }
     
     public LambdaContainer getBody() {
         return body;
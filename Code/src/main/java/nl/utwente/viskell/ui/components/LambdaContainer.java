@@ -139,7 +139,7 @@ public class LambdaContainer extends BorderPane implements ComponentLoader, Wrap
     }
 
     @Override
-    public final void handleConnectionChanges(boolean finalPhase) {
+    public final void handleConnectionChanges(boolean finalPhase, Set<Block> refreshed) {
         if (this.updateInProgress != finalPhase) {
             return; // avoid doing extra work and infinite recursion
         }
@@ -153,19 +153,19 @@ public class LambdaContainer extends BorderPane implements ComponentLoader, Wrap
         this.freshAnchorTypes = false;
         
         // first propagate up from the result anchor
-        this.res.getConnection().ifPresent(c -> c.handleConnectionChangesUpwards(finalPhase));
+        this.res.getConnection().ifPresent(c -> c.handleConnectionChangesUpwards(finalPhase, refreshed));
 
         // also propagate in from above in case the lambda is partially connected 
         for (BinderAnchor arg : this.args) {
             for (InputAnchor anchor : arg.getOppositeAnchors()) {
-                anchor.handleConnectionChanges(finalPhase);
+                anchor.handleConnectionChanges(finalPhase, refreshed);
                 // take the type of argument connections in account even if the connected block is being processed
-                anchor.getConnection().ifPresent(c -> c.handleConnectionChangesUpwards(finalPhase));
+                anchor.getConnection().ifPresent(c -> c.handleConnectionChangesUpwards(finalPhase, refreshed));
             }
         }
 
         // propagate internal type changes outwards
-        this.wrapper.handleConnectionChanges(finalPhase);
+        this.wrapper.handleConnectionChanges(finalPhase, refreshed);
     }
     
     /** @return The local expression this LambdaContainer represents. */
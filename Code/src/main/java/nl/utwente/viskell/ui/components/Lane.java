@@ -156,7 +156,7 @@ public class Lane extends BorderPane implements WrappedContainer, ComponentLoade
     }
     
     @Override
-    public final void handleConnectionChanges(boolean finalPhase) {
+    public final void handleConnectionChanges(boolean finalPhase, Set<Block> refreshed) {
         // avoid doing extra work and infinite recursion
         if ((!finalPhase && !firstPhaseInProgress) || (finalPhase && !finalPhaseInProgress)) {
             if (!finalPhase) {
@@ -173,19 +173,19 @@ public class Lane extends BorderPane implements WrappedContainer, ComponentLoade
             freshAnchorTypes = false;
             
             // first propagate up from the result anchor
-            result.getConnection().ifPresent(c -> c.handleConnectionChangesUpwards(finalPhase));
+            result.getConnection().ifPresent(c -> c.handleConnectionChangesUpwards(finalPhase, refreshed));
             
             // also propagate in from above in case the lane is partially connected 
             arguments.forEach(argument -> {
                 argument.getOppositeAnchors().forEach(anchor -> {
-                    anchor.handleConnectionChanges(finalPhase);
+                    anchor.handleConnectionChanges(finalPhase, refreshed);
                     // take the type of argument connections into account even if the connected block is being processed
-                    anchor.getConnection().ifPresent(connection -> connection.handleConnectionChangesUpwards(finalPhase));
+                    anchor.getConnection().ifPresent(connection -> connection.handleConnectionChangesUpwards(finalPhase, refreshed));
                 });
             });
     
             // propagate internal type changes outwards
-            parent.handleConnectionChanges(finalPhase);
+            parent.handleConnectionChanges(finalPhase, refreshed);
         }
     }
 
@@ -93,8 +93,8 @@ public class LocalDefUse extends Label implements FunctionReference {
         return container.isContainedWithin(this.definition.getContainer());
     }
 
-    public void handleConnectionChanges(boolean finalPhase) {
-        this.funBlock.handleConnectionChanges(finalPhase);        
+    public void handleConnectionChanges(boolean finalPhase, Set<Block> refreshed) {
+        this.funBlock.handleConnectionChanges(finalPhase, refreshed);        
     }
     
     public void onDefinitionRemoved() {
@@ -124,6 +124,15 @@ public class OutputAnchor extends ConnectionAnchor implements ConnectionAnchor.T
         this.guardMarker.setVisible(false);
     }
 
+    /**
+     * Brings the type of a connection up to date right before it gets unified,
+     * for anchors that give every connection a type of its own.
+     * @param connection One of the connections of this anchor.
+     */
+    protected void refreshConnectionType(Connection connection) {
+        // all connections share the type of this anchor
+    }
+
     /**
      * Drops the connection from this anchor
      * @param connection Connection to disconnect from.
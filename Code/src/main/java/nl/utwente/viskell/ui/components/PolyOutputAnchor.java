@@ -35,6 +35,15 @@ public class PolyOutputAnchor extends OutputAnchor {
         this.connectionTypes.add(this.binder.getBoundType().getFresh());
     }
 
+    /** Takes a fresh copy of the bound type, which may have become more specific since the connection was made. */
+    @Override
+    protected void refreshConnectionType(Connection connection) {
+        int index = this.connections.indexOf(connection);
+        if (index >= 0) {
+            this.connectionTypes.set(index, this.binder.getBoundType().getFresh());
+        }
+    }
+
     @Override
     protected void dropConnection(Connection connection) {
         int index = this.connections.indexOf(connection);
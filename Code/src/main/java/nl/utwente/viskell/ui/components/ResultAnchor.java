@@ -59,8 +59,8 @@ public class ResultAnchor extends InputAnchor {
     }
 
     @Override
-    protected void handleConnectionChanges(boolean finalPhase) {
-        container.handleConnectionChanges(finalPhase);
+    protected void handleConnectionChanges(boolean finalPhase, Set<Block> refreshed) {
+        container.handleConnectionChanges(finalPhase, refreshed);
     }
     
     @Override
@@ -1,9 +1,11 @@
 package nl.utwente.viskell.ui.components;
 
+import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import javafx.animation.AnimationTimer;
 import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.scene.control.Button;
@@ -16,16 +18,30 @@ import nl.utwente.viskell.haskell.type.TypeScope;
 import nl.utwente.viskell.ui.ComponentLoader;
 import nl.utwente.viskell.ui.ToplevelPane;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A CLaSH-specific block that is a counterpart to the `simulate` function in Clash. Expects a function that turns a
  * Signal of monotonically increasing numbers into a Signal of representable result values.
  *
  * While signals are infinite, SimulateBlock only shows the first N iterations/steps.
+ *
+ * The simulation is kept in the evaluator between steps, together with a cursor
+ * into it, so every step only computes and fetches the samples that are new.
+ * Only the samples from the start of the latest fetch on are kept there, which
+ * is as far back as a fetch that supersedes a lost one needs to go.
+ * The block itself only keeps the samples it shows, so stepping back further
+ * than that starts the simulation over.
+ *
+ * In play mode the simulation advances by itself, in batches that are sized so
+ * a batch takes about a frame budget. A new batch is only asked for once the
+ * previous one is shown, so the evaluator never gets ahead of the display.
  */
 public class SimulateBlock extends Block implements ComponentLoader {
     /** The Anchor that is used as input. */
@@ -42,12 +58,69 @@ public class SimulateBlock extends Block implements ComponentLoader {
 
     @FXML protected Button iterationLabel;
 
+    /** The button that starts and pauses play mode. */
+    @FXML protected Button play;
+
     /** Constrained type variable for the input anchor */
     private final Type funConstraint;
 
     /** The number of results to calculate and show */
     private int iteration;
 
+    /** Counts the SimulateBlocks, to give each simulation its own name in the evaluator. */
+    private static final AtomicInteger COUNT = new AtomicInteger();
+
+    /** The name of the simulation state in the evaluator. */
+    private final String simulation;
+
+    /** The Haskell code of the function that is simulated in the evaluator, or null. */
+    private String simulated;
+
+    /** The Haskell code of the function whose simulation is being started in the evaluator, or null. */
+    private String starting;
+
+    /** The shown latest samples of the simulation fetched so far, at most WINDOW of them. */
+    private final List<String> samples;
+
+    /** The number of samples of the simulation fetched so far. */
+    private int fetched;
+
+    /** The number of latest samples that are shown, and kept. */
+    private static final int WINDOW = 32;
+
+    /** The time in nanoseconds a batch of samples should take in play mode. */
+    private static final long FRAME_BUDGET = 33_000_000;
+
+    /** The maximum number of samples in a batch. */
+    private static final int MAX_BATCH = 4096;
+
+    /** Advances the simulation every frame while in play mode. */
+    private final AnimationTimer runner;
+
+    /** Whether the simulation is in play mode. */
+    private boolean playing;
+
+    /** The number of steps to advance by in the next batch of play mode. */
+    private int batch;
+
+    /** Counts the fetches, to recognise the one that is outstanding. */
+    private long fetches;
+
+    /** The fetch that is outstanding, or 0 if there is none. */
+    private long outstanding;
+
+    /** The time the outstanding fetch was started at, in nanoseconds. */
+    private long fetchStart;
+
+    /**
+     * Fetches samples from position n on, given the simulation state, n and the number of samples k.
+     * The state holds the cursor i with the samples from there on, and the position j of the latest fetch
+     * with the samples from there on, so n has to be at least j.
+     */
+    private static final String FETCH = "Data.IORef.atomicModifyIORef' %s (\\(i, s, j, b) -> "
+            + "let r = if %2$d >= i then Data.List.drop (%2$d - i) s else Data.List.drop (%2$d - j) b "
+            + "in ((%2$d + %3$d, Data.List.drop %3$d r, %2$d, r), Data.List.take %3$d r)) >>= putStr . unlines . map show";
+
     public SimulateBlock(ToplevelPane pane) {
         super(pane);
         loadFXML("SimulateBlock");
@@ -56,6 +129,19 @@ public class SimulateBlock extends Block implements ComponentLoader {
         inputSpace.getChildren().add(inputAnchor);
 
         iteration = 0;
+        simulation = "simulation_" + COUNT.incrementAndGet();
+        simulated = null;
+        starting = null;
+        samples = new ArrayList<>();
+        fetched = 0;
+        playing = false;
+        batch = 1;
+        runner = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                advance();
+            }
+        };
 
         String signature = "(Num a, Show b) => Signal a -> Signal b";
         funConstraint = getToplevel().getEnvInstance().buildType(signature);
@@ -73,20 +159,143 @@ public class SimulateBlock extends Block implements ComponentLoader {
 
         if (this.inValidContext && inputAnchor.hasValidConnection()) {
             GhciSession ghciSession = getToplevel().getGhciSession();
-            String format = "Data.List.take %d $ simulate (%s) [1..]";
-            String expr = String.format(format, iteration, inputAnchor.getFullExpr().toHaskell());
-            ListenableFuture<String> result = ghciSession.pullRaw(expr);
+            String function = inputAnchor.getFullExpr().toHaskell();
+            if (this.iteration < this.fetched - this.samples.size()) {
+                // the samples to show are no longer kept, so the simulation starts over
+                this.simulated = null;
+                this.starting = null;
+            }
+            if (!function.equals(this.simulated) && !function.equals(this.starting)) {
+                // start over with a fresh simulation, along with a cursor at its start
+                String start = "let s = simulate (%s) [1..] in Data.IORef.newIORef (0 :: Int, s, 0 :: Int, s)";
+                this.starting = function;
+                this.samples.clear();
+                this.fetched = 0;
+                Futures.addCallback(ghciSession.bind(this.simulation, String.format(start, function)), new FutureCallback<String>() {
+                    public void onSuccess(String s)    { Platform.runLater(() -> started(function, true)); }
+                    public void onFailure(Throwable t) { Platform.runLater(() -> started(function, false)); }
+                });
+            }
+
+            int have = this.fetched;
+            if (this.iteration <= have) {
+                this.showSamples();
+                return;
+            }
+
+            // only the samples that are new, the evaluator moves its cursor along
+            String expr = String.format(FETCH, this.simulation, have, this.iteration - have);
+            ListenableFuture<String> result = ghciSession.pullRaw(expr, this);
+            long fetch = ++this.fetches;
+            this.outstanding = fetch;
+            this.fetchStart = System.nanoTime();
 
             // See DisplayBlock.invalidateVisualState
             Futures.addCallback(result, new FutureCallback<String>() {
-                public void onSuccess(String s)    { Platform.runLater(() -> value.setText(s)); }
-                public void onFailure(Throwable t) { Platform.runLater(() -> value.setText("?!?!?!")); }
+                public void onSuccess(String s)    { Platform.runLater(() -> { fetched(fetch, true); addSamples(function, have, s); }); }
+                public void onFailure(Throwable t) {
+                    if (!(t instanceof CancellationException)) {
+                        Platform.runLater(() -> { fetched(fetch, false); value.setText("?!?!?!"); });
+                    } else {
+                        Platform.runLater(() -> fetched(fetch, false));
+                    }
+                }
             });
         } else {
+            this.pause();
             value.setText("?");
         }
     }
 
+    /**
+     * Notes that the simulation of a function is started in the evaluator, or failed to.
+     * @param function The function that is simulated.
+     * @param success Whether the simulation is ready for fetching samples.
+     */
+    private void started(String function, boolean success) {
+        if (function.equals(this.starting)) {
+            this.starting = null;
+            this.simulated = success ? function : null;
+        }
+    }
+
+    /**
+     * Notes that a fetch is done, and sizes the next batch of play mode by how long it took.
+     * @param fetch The number of the fetch.
+     * @param success Whether the samples came in, play mode stops otherwise.
+     */
+    private void fetched(long fetch, boolean success) {
+        if (fetch != this.outstanding) {
+            // superseded by a newer fetch
+            return;
+        }
+
+        this.outstanding = 0;
+        if (!success) {
+            this.pause();
+        } else if (this.playing) {
+            long took = System.nanoTime() - this.fetchStart;
+            if (took < FRAME_BUDGET / 2) {
+                this.batch = Math.min(MAX_BATCH, this.batch * 2);
+            } else if (took > FRAME_BUDGET) {
+                this.batch = Math.max(1, this.batch / 2);
+            }
+        }
+    }
+
+    /** Advances the simulation by a batch in play mode, unless the previous batch is still underway. */
+    private void advance() {
+        if (this.playing && this.outstanding == 0) {
+            setIteration(iteration + this.batch);
+        }
+    }
+
+    /** Starts or pauses play mode. */
+    public void togglePlay() {
+        if (this.playing) {
+            this.pause();
+        } else {
+            this.playing = true;
+            this.batch = 1;
+            this.play.setText("Pause");
+            this.runner.start();
+        }
+    }
+
+    /** Leaves play mode. */
+    private void pause() {
+        this.playing = false;
+        this.play.setText("Play");
+        this.runner.stop();
+    }
+
+    /**
+     * Adds fetched samples, unless the simulation has changed since they were asked for.
+     * @param function The function that was simulated.
+     * @param from The number of samples there were when they were asked for.
+     * @param output The shown samples, one per line.
+     */
+    private void addSamples(String function, int from, String output) {
+        if (function.equals(this.simulated) && from == this.fetched) {
+            List<String> added = Splitter.on('\n').omitEmptyStrings().trimResults().splitToList(output);
+            this.fetched += added.size();
+            this.samples.addAll(added.subList(Math.max(0, added.size() - WINDOW), added.size()));
+            if (this.samples.size() > WINDOW) {
+                this.samples.subList(0, this.samples.size() - WINDOW).clear();
+            }
+        }
+        this.showSamples();
+    }
+
+    /** Shows the latest samples up to the current iteration, as a list. */
+    private void showSamples() {
+        // the kept samples are the ones from position fetched - samples.size() on
+        int offset = this.fetched - this.samples.size();
+        int shown = Math.max(0, Math.min(this.iteration, this.fetched) - offset);
+        int first = Math.max(0, shown - WINDOW);
+        value.setText((offset + first > 0 ? "[…," : "[") + String.join(",", this.samples.subList(first, shown)) + "]");
+    }
+
     /** Step to the next iteration. */
     public void step() {
         setIteration(iteration + 1);
@@ -94,6 +303,7 @@ public class SimulateBlock extends Block implements ComponentLoader {
 
     /** Reset to the first iteration. */
     public void reset() {
+        this.pause();
         setIteration(0);
     }
 
@@ -103,6 +313,12 @@ public class SimulateBlock extends Block implements ComponentLoader {
         this.invalidateVisualState();
     }
 
+    @Override
+    public void deleteAllLinks() {
+        this.pause();
+        super.deleteAllLinks();
+    }
+
     @Override
     public List<InputAnchor> getAllInputs() {
         return ImmutableList.of(inputAnchor);
@@ -3,6 +3,7 @@ package nl.utwente.viskell.ui.components;
 import nl.utwente.viskell.ui.BlockContainer;
 import nl.utwente.viskell.ui.ToplevelPane;
 
+import java.util.Set;
 
 /** A Block container within another block with possible outputs and inputs. */
 public interface WrappedContainer extends BlockContainer {
@@ -22,8 +23,9 @@ public interface WrappedContainer extends BlockContainer {
      * Handle the expression and types changes caused by modified connections or values.
      * Also propagate the changes through internal connected blocks, and then outwards.
      * @param finalPhase whether the change propagation is in the second (final) phase.
+     * @param refreshed the blocks refreshed for a change in value only by this propagation so far.
      */
-    void handleConnectionChanges(boolean finalPhase);
+    void handleConnectionChanges(boolean finalPhase, Set<Block> refreshed);
 
     /** Move the attached blocks with the specified offset */
     default void moveNodes(double dx, double dy) {
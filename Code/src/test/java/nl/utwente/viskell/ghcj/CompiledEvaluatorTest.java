@@ -0,0 +1,43 @@
+package nl.utwente.viskell.ghcj;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CompiledEvaluatorTest {
+    /** A newline character. */
+    private String NL = null;
+
+    @Before
+    public void setUp() {
+        this.NL = System.getProperty("line.separator");
+    }
+
+    @Test
+    public void compiledBindingsTest() throws HaskellException {
+        CompiledEvaluator ghci = new CompiledEvaluator();
+        ghci.eval("let base__c1 = 20");
+        ghci.eval("let answer__c2 = base__c1 * 2 + 2");
+
+        Assert.assertEquals("42" + this.NL, ghci.eval("answer__c2"));
+        Assert.assertEquals(2, ghci.getLoadedModules().size());
+        Assert.assertTrue(ghci.takeWarnings().isEmpty());
+
+        // only the changed binding gets a new module, the one it uses is kept
+        ghci.eval("let answer__c2 = base__c1 + 1");
+        Assert.assertEquals("21" + this.NL, ghci.eval("answer__c2"));
+        Assert.assertEquals(2, ghci.getLoadedModules().size());
+    }
+
+    @Test
+    public void fallbackTest() throws HaskellException {
+        CompiledEvaluator ghci = new CompiledEvaluator("/nonexistent/ghc");
+        ghci.eval("let base__f1 = 20");
+        ghci.eval("let answer__f2 = base__f1 * 2 + 2");
+
+        // the bindings stay interpreted, and the failure is reported
+        Assert.assertEquals("42" + this.NL, ghci.eval("answer__f2"));
+        Assert.assertTrue(ghci.getLoadedModules().isEmpty());
+        Assert.assertTrue(ghci.takeWarnings().get(0).contains("stays interpreted"));
+    }
+}
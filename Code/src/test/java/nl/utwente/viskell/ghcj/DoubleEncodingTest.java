@@ -0,0 +1,33 @@
+package nl.utwente.viskell.ghcj;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DoubleEncodingTest {
+    @Test
+    public void readValues() {
+        double[] values = DoubleEncoding.read("3ff0000000000000c0000000000000007ff80000000000003fb999999999999a\n");
+        Assert.assertArrayEquals(new double[] {1.0, -2.0, Double.NaN, 0.1}, values, 0.0);
+    }
+
+    @Test
+    public void readEmpty() {
+        Assert.assertEquals(0, DoubleEncoding.read("\n").length);
+    }
+
+    @Test
+    public void roundTrip() {
+        double[] values = {0.0, -0.0, Math.PI, Double.MIN_VALUE, Double.NEGATIVE_INFINITY};
+        StringBuilder hex = new StringBuilder();
+        for (double value : values) {
+            hex.append(String.format("%016x", Double.doubleToRawLongBits(value)));
+        }
+
+        Assert.assertArrayEquals(values, DoubleEncoding.read(hex.toString()), 0.0);
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void readGarbage() {
+        DoubleEncoding.read("0.5 0.25");
+    }
+}
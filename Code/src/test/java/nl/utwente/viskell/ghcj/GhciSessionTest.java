@@ -1,7 +1,14 @@
 package nl.utwente.viskell.ghcj;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 import nl.utwente.viskell.haskell.env.Environment;
+import nl.utwente.viskell.haskell.expr.Binder;
 import nl.utwente.viskell.haskell.expr.Expression;
+import nl.utwente.viskell.haskell.expr.LetExpression;
+import nl.utwente.viskell.haskell.expr.LocalVar;
 import nl.utwente.viskell.haskell.expr.Value;
 import nl.utwente.viskell.haskell.type.Type;
 import org.junit.After;
@@ -9,6 +16,13 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
 public class GhciSessionTest {
     /** Our session with Ghci. */
     private GhciSession ghci = null;
@@ -44,4 +58,390 @@ public class GhciSessionTest {
         this.ghci.push("my_pi", this.pi);
         Assert.assertEquals("3.14", this.ghci.pullRaw("my_pi").get());
     }
+
+    @Test
+    public void pooledPushPull() throws Exception {
+        GhciSession pool = new GhciSession(2);
+        pool.startAsync();
+        pool.awaitRunning();
+
+        try {
+            pool.push("my_pi", this.pi);
+            ListenableFuture<String> first = pool.pullRaw("my_pi * 2");
+            ListenableFuture<String> second = pool.pullRaw("sum [1..100]");
+            ListenableFuture<String> third = pool.pullRaw("my_pi");
+
+            Assert.assertEquals("6.28", first.get());
+            Assert.assertEquals("5050", second.get());
+            Assert.assertEquals("3.14", third.get());
+        } finally {
+            pool.stopAsync();
+            pool.awaitTerminated();
+        }
+    }
+
+    @Test
+    public void colocatedPull() throws Exception {
+        GhciSession pool = new GhciSession(2);
+        pool.startAsync();
+        pool.awaitRunning();
+
+        try {
+            pool.push("my_a", new Value(Type.con("Int"), "1")).get(10, TimeUnit.SECONDS);
+            // keep a request queued at the worker holding my_a, so my_b goes to the other worker
+            ListenableFuture<String> busy = pool.pullRaw("my_a `seq` Control.Concurrent.threadDelay 300000");
+            ListenableFuture<String> queued = pool.pullRaw("my_a", null, GhciSession.Priority.Background);
+            pool.push("my_b", new Value(Type.con("Int"), "2")).get(10, TimeUnit.SECONDS);
+
+            Assert.assertEquals("3", pool.pullRaw("my_a + my_b").get(10, TimeUnit.SECONDS));
+            Assert.assertEquals("", busy.get(10, TimeUnit.SECONDS));
+            Assert.assertEquals("1", queued.get(10, TimeUnit.SECONDS));
+        } finally {
+            pool.stopAsync();
+            pool.awaitTerminated();
+        }
+    }
+
+    @Test
+    public void supersededPull() throws Exception {
+        // a single evaluator, so the second request only gets through if the first one is interrupted
+        GhciSession single = new GhciSession(1);
+        single.startAsync();
+        single.awaitRunning();
+
+        try {
+            Object block = new Object();
+            ListenableFuture<String> endless = single.pullCached("length [1..]", block);
+            Thread.sleep(200);
+            ListenableFuture<String> latest = single.pullCached("2 + 3", block);
+
+            Assert.assertTrue(endless.isCancelled());
+            Assert.assertEquals("5", latest.get(10, TimeUnit.SECONDS));
+            Assert.assertEquals("7", single.pullCached("3 + 4").get(10, TimeUnit.SECONDS));
+        } finally {
+            single.stopAsync();
+            single.awaitTerminated();
+        }
+    }
+
+    @Test
+    public void timedOutPull() throws Exception {
+        GhciSession single = new GhciSession(1);
+        single.setTimeout(500);
+        single.startAsync();
+        single.awaitRunning();
+
+        try {
+            single.push("my_pi", this.pi);
+            ListenableFuture<String> endless = single.pullRaw("length [1..]");
+            ListenableFuture<String> next = single.pullRaw("my_pi");
+
+            try {
+                endless.get(10, TimeUnit.SECONDS);
+                Assert.fail("endless evaluation should time out");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof HaskellException);
+            }
+
+            Assert.assertEquals("3.14", next.get(10, TimeUnit.SECONDS));
+        } finally {
+            single.stopAsync();
+            single.awaitTerminated();
+        }
+    }
+
+    @Test
+    public void restartedPull() throws Exception {
+        GhciSession single = new GhciSession(1);
+        single.setTimeout(500);
+        single.startAsync();
+        single.awaitRunning();
+
+        try {
+            single.push("my_x", new Value(Type.con("Int"), "1"));
+            single.push("my_y", new Value(Type.con("Int"), "my_x * 2"));
+            // the new version of my_x was uploaded after my_y, which uses it
+            single.push("my_x", new Value(Type.con("Int"), "5"));
+
+            // ghci ignores the interrupt, so it gets killed and replaced
+            ListenableFuture<String> stuck = single.pullRaw("stuck");
+            try {
+                stuck.get(10, TimeUnit.SECONDS);
+                Assert.fail("stuck evaluation should time out");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof HaskellException);
+            }
+
+            Assert.assertEquals("5", single.pullRaw("my_x").get(10, TimeUnit.SECONDS));
+        } finally {
+            single.stopAsync();
+            single.awaitTerminated();
+        }
+    }
+
+    @Test
+    public void pipelinedBatch() throws Exception {
+        GhciSession single = new GhciSession(1);
+        single.startAsync();
+        single.awaitRunning();
+
+        try {
+            List<ListenableFuture<String>> results = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                results.add(single.pullRaw(i + " * 2"));
+            }
+
+            for (int i = 0; i < 50; i++) {
+                Assert.assertEquals(Integer.toString(i * 2), results.get(i).get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            single.stopAsync();
+            single.awaitTerminated();
+        }
+    }
+
+    @Test
+    public void prioritizedPull() throws Exception {
+        GhciSession single = new GhciSession(1);
+        single.startAsync();
+        single.awaitRunning();
+
+        try {
+            // keep the evaluator busy, so both requests are queued when it is free again
+            ListenableFuture<String> busy = single.pullRaw("Control.Concurrent.threadDelay 300000");
+            ListenableFuture<String> background = single.pullRaw("1 + 1", null, GhciSession.Priority.Background);
+            ListenableFuture<String> interactive = single.pullRaw("2 + 2", null, GhciSession.Priority.Interactive);
+            SettableFuture<Boolean> interactiveFirst = SettableFuture.create();
+            background.addListener(() -> interactiveFirst.set(interactive.isDone()), MoreExecutors.directExecutor());
+
+            Assert.assertEquals("2", background.get(10, TimeUnit.SECONDS));
+            Assert.assertEquals("4", interactive.get(10, TimeUnit.SECONDS));
+            Assert.assertTrue(interactiveFirst.get(10, TimeUnit.SECONDS));
+            Assert.assertEquals("", busy.get(10, TimeUnit.SECONDS));
+        } finally {
+            single.stopAsync();
+            single.awaitTerminated();
+        }
+    }
+
+    @Test
+    public void streamedPull() throws Exception {
+        GhciSession single = new GhciSession(1);
+        single.startAsync();
+        single.awaitRunning();
+
+        try {
+            StringBuilder chunks = new StringBuilder();
+            boolean[] truncated = {false};
+            ListenableFuture<String> endless = single.pullStream("putStr (cycle \"ab\")", null, GhciSession.Priority.Interactive,
+                    new OutputListener() {
+                        public void onOutput(String chunk) {
+                            chunks.append(chunk);
+                        }
+
+                        public void onTruncated() {
+                            truncated[0] = true;
+                        }
+                    }, 1000);
+
+            String result = endless.get(10, TimeUnit.SECONDS);
+            Assert.assertTrue(truncated[0]);
+            Assert.assertTrue(result.length() >= 1000);
+            Assert.assertEquals(chunks.toString().trim(), result);
+
+            // the evaluator is back in step after stopping the output
+            Assert.assertEquals("2", single.pullRaw("1 + 1").get(10, TimeUnit.SECONDS));
+        } finally {
+            single.stopAsync();
+            single.awaitTerminated();
+        }
+    }
+
+    @Test
+    public void sharedStream() throws Exception {
+        GhciSession single = new GhciSession(1);
+        single.startAsync();
+        single.awaitRunning();
+
+        try {
+            single.bind("evals", "Data.IORef.newIORef (0 :: Int)").get(10, TimeUnit.SECONDS);
+            String count = "Data.IORef.atomicModifyIORef' evals (\\n -> (n + 1, n + 1))";
+            StringBuilder firstChunks = new StringBuilder();
+            StringBuilder secondChunks = new StringBuilder();
+
+            // keep the evaluator busy, so both requests are pending at the same time
+            ListenableFuture<String> busy = single.pullRaw("Control.Concurrent.threadDelay 300000");
+            ListenableFuture<String> first = single.pullStream(count, null, GhciSession.Priority.Interactive, new OutputListener() {
+                public void onOutput(String chunk) {
+                    firstChunks.append(chunk);
+                }
+
+                public void onTruncated() {
+                }
+            }, 1000);
+            ListenableFuture<String> second = single.pullStream(count, null, GhciSession.Priority.Interactive, new OutputListener() {
+                public void onOutput(String chunk) {
+                    secondChunks.append(chunk);
+                }
+
+                public void onTruncated() {
+                }
+            }, 1000);
+
+            Assert.assertEquals("1", first.get(10, TimeUnit.SECONDS));
+            Assert.assertEquals("1", second.get(10, TimeUnit.SECONDS));
+            Assert.assertEquals("1", firstChunks.toString().trim());
+            Assert.assertEquals("1", secondChunks.toString().trim());
+            Assert.assertEquals("", busy.get(10, TimeUnit.SECONDS));
+            Assert.assertEquals("1", single.pullRaw("Data.IORef.readIORef evals").get(10, TimeUnit.SECONDS));
+        } finally {
+            single.stopAsync();
+            single.awaitTerminated();
+        }
+    }
+
+    @Test
+    public void boundState() throws Exception {
+        ghci.bind("seed", "return 21").get(10, TimeUnit.SECONDS);
+        Assert.assertEquals("42", ghci.pullRaw("seed * 2").get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void interruptedBatch() throws Exception {
+        GhciSession single = new GhciSession(1);
+        single.startAsync();
+        single.awaitRunning();
+
+        try {
+            Object block = new Object();
+            // keep the evaluator busy, so the next requests get sent as one batch
+            ListenableFuture<String> busy = single.pullRaw("Control.Concurrent.threadDelay 300000");
+            ListenableFuture<String> endless = single.pullCached("length [1..]", block);
+            ListenableFuture<String> first = single.pullRaw("1 + 1");
+            ListenableFuture<String> second = single.pullRaw("2 + 2");
+            Thread.sleep(600);
+
+            ListenableFuture<String> latest = single.pullCached("5 + 5", block);
+            Assert.assertTrue(endless.isCancelled());
+            Assert.assertEquals("2", first.get(10, TimeUnit.SECONDS));
+            Assert.assertEquals("4", second.get(10, TimeUnit.SECONDS));
+            Assert.assertEquals("10", latest.get(10, TimeUnit.SECONDS));
+            Assert.assertEquals("", busy.get(10, TimeUnit.SECONDS));
+        } finally {
+            single.stopAsync();
+            single.awaitTerminated();
+        }
+    }
+
+    @Test
+    public void incrementalPull() throws Exception {
+        Binder x = new Binder("x");
+        Binder y = new Binder("y");
+
+        LetExpression graph = new LetExpression(new LocalVar(y), false);
+        graph.addLetBinding(y, new Value(Type.con("Int"), x.getUniqueName() + " + 1"));
+        graph.addLetBinding(x, new Value(Type.con("Int"), "3"));
+        Assert.assertEquals("4", this.ghci.pullIncremental(graph, graph.getBody().toHaskell(), null).get());
+
+        // y has to be uploaded again because it uses the new x, even though its own text is the same
+        LetExpression changed = new LetExpression(new LocalVar(y), false);
+        changed.addLetBinding(y, new Value(Type.con("Int"), x.getUniqueName() + " + 1"));
+        changed.addLetBinding(x, new Value(Type.con("Int"), "10"));
+        Assert.assertEquals("11", this.ghci.pullIncremental(changed, changed.getBody().toHaskell(), null).get());
+
+        String twice = y.getUniqueName() + " * 2";
+        Assert.assertEquals("22", this.ghci.pullIncremental(changed, twice, null).get());
+    }
+
+    @Test
+    public void incrementalDiamond() throws Exception {
+        Binder a = new Binder("a");
+        Binder b = new Binder("b");
+        Binder c = new Binder("c");
+        Binder d = new Binder("d");
+        Binder e = new Binder("e");
+
+        // a uses b and c, which both use d, which uses e; d ends up after e in the graph
+        for (String base : new String[] {"1", "10"}) {
+            LetExpression graph = new LetExpression(new LocalVar(a), false);
+            graph.addLetBinding(a, new Value(Type.con("Int"), b.getUniqueName() + " + " + c.getUniqueName()));
+            graph.addLetBinding(b, new Value(Type.con("Int"), d.getUniqueName() + " + 1"));
+            graph.addLetBinding(d, new Value(Type.con("Int"), e.getUniqueName() + " + 1"));
+            graph.addLetBinding(e, new Value(Type.con("Int"), base));
+            graph.addLetBinding(c, new Value(Type.con("Int"), d.getUniqueName() + " * 2"));
+            graph.addLetBinding(d, new Value(Type.con("Int"), e.getUniqueName() + " + 1"));
+
+            int expected = (Integer.parseInt(base) + 2) + (Integer.parseInt(base) + 1) * 2;
+            Assert.assertEquals(Integer.toString(expected), this.ghci.pullIncremental(graph, graph.getBody().toHaskell(), null).get());
+        }
+    }
+
+    @Test
+    public void sharedPull() throws Exception {
+        GhciSession single = new GhciSession(1);
+        single.startAsync();
+        single.awaitRunning();
+
+        try {
+            single.bind("evals", "Data.IORef.newIORef (0 :: Int)").get(10, TimeUnit.SECONDS);
+            String count = "Data.IORef.atomicModifyIORef' evals (\\n -> (n + 1, n + 1))";
+
+            // keep the evaluator busy, so both requests are pending at the same time
+            ListenableFuture<String> busy = single.pullRaw("Control.Concurrent.threadDelay 300000");
+            ListenableFuture<String> first = single.pullRaw(count);
+            ListenableFuture<String> second = single.pullRaw(count);
+
+            // one caller giving up does not cancel the evaluation for the other
+            first.cancel(true);
+            Assert.assertEquals("1", second.get(10, TimeUnit.SECONDS));
+            Assert.assertEquals("", busy.get(10, TimeUnit.SECONDS));
+
+            // and the command was only evaluated once
+            Assert.assertEquals("1", single.pullRaw("Data.IORef.readIORef evals").get(10, TimeUnit.SECONDS));
+        } finally {
+            single.stopAsync();
+            single.awaitTerminated();
+        }
+    }
+
+    @Test
+    public void cachedPull() throws Exception {
+        Assert.assertEquals("4", this.ghci.pullCached("(let {x__1f = 2} in x__1f + x__1f)").get());
+        Assert.assertEquals("4", this.ghci.pullCached("(let {x__a9 = 2} in x__a9 + x__a9)").get());
+        Assert.assertEquals(1, this.ghci.getCacheStats().hitCount());
+        Assert.assertEquals(1, this.ghci.getCacheStats().missCount());
+    }
+
+    @Test
+    public void interruptedPullNotCached() throws Exception {
+        // what ghci answers when an interrupt signal reaches an evaluation that was not meant to be interrupted
+        for (int i = 0; i < 2; i++) {
+            try {
+                this.ghci.pullCached("putStrLn \"Interrupted.\"").get(10, TimeUnit.SECONDS);
+                Assert.fail("an interrupted evaluation should fail");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof HaskellException);
+            }
+        }
+        Assert.assertEquals(0, this.ghci.getCacheStats().hitCount());
+    }
+
+    @Test
+    public void dependencyOrder() {
+        Map<String, String> bindings = new LinkedHashMap<>();
+        bindings.put("c", "let c = b + a");
+        bindings.put("a", "let a = 1");
+        bindings.put("b", "let b = a * 2");
+        bindings.put("d", "let d = 4");
+        Assert.assertEquals(ImmutableList.of("a", "b", "c", "d"), GhciSession.dependencyOrder(bindings));
+    }
+
+    @Test
+    public void canonicalNames() {
+        Assert.assertEquals("(let {x__0 = 1; y__1 = x__0} in y__1)",
+                GhciSession.canonicalize("(let {x__3ab = 1; y__ff = x__3ab} in y__ff)"));
+        Assert.assertEquals("f \"x__3ab\" x__0 'x'",
+                GhciSession.canonicalize("f \"x__3ab\" x__3ab 'x'"));
+        Assert.assertEquals("x__3abz", GhciSession.canonicalize("x__3abz"));
+    }
 }
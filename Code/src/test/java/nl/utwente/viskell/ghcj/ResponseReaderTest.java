@@ -0,0 +1,145 @@
+package nl.utwente.viskell.ghcj;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ResponseReaderTest {
+    /** @return a reader over the UTF-8 bytes of the text. */
+    private static ResponseReader readerOf(String text) {
+        return new ResponseReader(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void consecutiveResponses() throws Exception {
+        ResponseReader reader = readerOf("4\n\0Hello\n\0");
+        Assert.assertEquals("4\n", reader.read());
+        Assert.assertEquals("Hello\n", reader.read());
+    }
+
+    @Test
+    public void decodesUtf8() throws Exception {
+        ResponseReader reader = readerOf("\"λ→∀\"\n\0");
+        Assert.assertEquals("\"λ→∀\"\n", reader.read());
+    }
+
+    @Test
+    public void largeResponse() throws Exception {
+        StringBuilder big = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            big.append(i).append(' ');
+        }
+        big.append('\n');
+
+        ResponseReader reader = readerOf(big + "\0" + "done\n\0");
+        Assert.assertEquals(big.toString(), reader.read());
+        Assert.assertEquals("done\n", reader.read());
+    }
+
+    @Test
+    public void splitMultibyteCharacter() throws Exception {
+        // deliver one byte at a time, so characters arrive in pieces
+        byte[] bytes = "ünïcödé\n\0".getBytes(StandardCharsets.UTF_8);
+        InputStream trickle = new ByteArrayInputStream(bytes) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 1));
+            }
+        };
+
+        Assert.assertEquals("ünïcödé\n", new ResponseReader(trickle).read());
+    }
+
+    @Test
+    public void exceptionInsideResult() throws Exception {
+        // the header only counts at the start of a line
+        ResponseReader reader = readerOf("[1,2,*** Exception: Prelude.head: empty list\n\0");
+        Assert.assertEquals("[1,2,*** Exception: Prelude.head: empty list\n", reader.read());
+    }
+
+    @Test
+    public void exceptionOnOwnLine() throws Exception {
+        ResponseReader reader = readerOf("*** Exception: Prelude.head: empty list\n\0ok\n\0");
+        try {
+            reader.read();
+            Assert.fail("exception should have been reported");
+        } catch (HaskellException e) {
+            Assert.assertEquals("Prelude.head: empty list", e.getMessage());
+        }
+
+        // the reader continues with the next response
+        Assert.assertEquals("ok\n", reader.read());
+    }
+
+    @Test
+    public void parseError() throws Exception {
+        ResponseReader reader = readerOf("<interactive>:1:1:\n    No instance for (Num Bool)\n\0");
+        try {
+            reader.read();
+            Assert.fail("error should have been reported");
+        } catch (HaskellException e) {
+            Assert.assertEquals("<interactive>:1:1:\n    No instance for (Num Bool)", e.getMessage());
+        }
+    }
+
+    @Test
+    public void streamedInPieces() throws Exception {
+        // deliver a few bytes at a time, so characters and lines arrive in pieces
+        byte[] bytes = "ünïcödé\nλ→∀ and more\n\0next\n\0".getBytes(StandardCharsets.UTF_8);
+        InputStream trickle = new ByteArrayInputStream(bytes) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 3));
+            }
+        };
+
+        ResponseReader reader = new ResponseReader(trickle);
+        List<String> chunks = new ArrayList<>();
+        Assert.assertTrue(reader.stream(chunks::add, Long.MAX_VALUE));
+        Assert.assertTrue(chunks.size() > 1);
+        Assert.assertEquals("ünïcödé\nλ→∀ and more\n", String.join("", chunks));
+        Assert.assertEquals("next\n", reader.read());
+    }
+
+    @Test
+    public void streamStopsAtLimit() throws Exception {
+        StringBuilder big = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            big.append(i).append(' ');
+        }
+
+        StringBuilder streamed = new StringBuilder();
+        Assert.assertFalse(readerOf(big + "\n\0").stream(streamed::append, 1000));
+        Assert.assertTrue(streamed.length() >= 1000);
+        Assert.assertTrue(streamed.length() < big.length());
+        Assert.assertTrue(big.toString().startsWith(streamed.toString()));
+    }
+
+    @Test
+    public void streamedError() throws Exception {
+        ResponseReader reader = readerOf("partial output\n*** Exception: Prelude.undefined\n\0ok\n\0");
+        StringBuilder streamed = new StringBuilder();
+        try {
+            reader.stream(streamed::append, Long.MAX_VALUE);
+            Assert.fail("exception should have been reported");
+        } catch (HaskellException e) {
+            Assert.assertEquals("Prelude.undefined", e.getMessage());
+        }
+
+        // the error line itself is never handed over
+        Assert.assertEquals("partial output\n", streamed.toString());
+        Assert.assertEquals("ok\n", reader.read());
+    }
+
+    @Test(expected = EOFException.class)
+    public void truncated() throws IOException, HaskellException {
+        readerOf("no sentinel").read();
+    }
+}
@@ -7,6 +7,7 @@ import org.junit.Test;
 import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertThat;
 
 public class ClassesTest {
@@ -87,6 +88,40 @@ public class ClassesTest {
        assertEquals("[Char]", z.prettyPrint());
     }
     
+    @Test
+    public final void testSatisfiableCombination() throws HaskellTypeError {
+        final Environment env = new HaskellCatalog().asEnvironment();
+        TypeScope scope = new TypeScope();
+        TypeVar a = scope.getVarTC("a", env.testLookupClass("Show"));
+        TypeVar b = scope.getVarTC("b", env.testLookupClass("Num"));
+        TypeVar c = scope.getVarTC("c", env.testLookupClass("Eq"));
+        TypeChecker.unify("test", a, b);
+        TypeChecker.unify("test", b, c);
+        // classes are shown by name, regardless of the order they were added in
+        assertEquals("(Eq+Num+Show c)", c.prettyPrint());
+        assertEquals(3, c.getConstraints().count());
+    }
+
+    @Test
+    public final void testClassesOfOlderCatalog() throws HaskellTypeError {
+        TypeScope scope = new TypeScope();
+        TypeVar a = scope.getVarTC("a", new TypeClass("Older", Type.con("Int")));
+        // another class with the same name, as in a catalog that is loaded again, leaves the first one alone
+        new TypeClass("Older");
+        TypeChecker.unify("test", a, Type.con("Int"));
+        assertEquals("Int", a.prettyPrint());
+    }
+
+    @Test
+    public final void testReloadedCatalogSharesNumbers() {
+        TypeClass first = new HaskellCatalog().asEnvironment().testLookupClass("Integral");
+        TypeClass second = new HaskellCatalog().asEnvironment().testLookupClass("Integral");
+        // the same definitions get the same numbers, so reloading does not add any
+        assertNotSame(first, second);
+        assertEquals(first.id(), second.id());
+        assertEquals(first.superIds, second.superIds);
+    }
+
     @Test(expected = HaskellTypeError.class)
     public final void testUnsatisfiable() throws HaskellTypeError {
         final Environment env = new HaskellCatalog().asEnvironment();
@@ -50,4 +50,13 @@ public class TypeConTest {
         assertEquals("(Integer, Integer)", tuple.prettyPrint());
     }
 
+    @Test
+    public final void testInterned() {
+        assertSame(Type.con("Integer"), Type.con("Integer"));
+        assertSame(Type.con("Integer"), Type.con("Integer").getConcrete());
+        assertSame(Type.con("[]"), ((TypeApp) Type.listOf(Type.con("Char"))).getTypeFun());
+        assertTrue(Type.con("(,)") instanceof TupleTypeCon);
+        assertNotSame(Type.con("Integer"), Type.con("Int"));
+    }
+
 }
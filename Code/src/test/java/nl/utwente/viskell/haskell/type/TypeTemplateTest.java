@@ -0,0 +1,49 @@
+package nl.utwente.viskell.haskell.type;
+
+import nl.utwente.viskell.haskell.env.Environment;
+import nl.utwente.viskell.haskell.env.HaskellCatalog;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TypeTemplateTest {
+    @Test
+    public void testInstantiate() throws HaskellTypeError {
+        Environment env = new HaskellCatalog().asEnvironment();
+        Type signature = env.buildType("Num a => (a -> b -> [Int]) -> [a] -> [b] -> [[Int]]");
+        TypeTemplate template = TypeTemplate.of(signature);
+
+        FunType first = (FunType) template.instantiate();
+        FunType second = (FunType) template.instantiate();
+        assertEquals(signature.prettyPrint(), first.prettyPrint());
+        assertEquals(signature.prettyPrint(), second.prettyPrint());
+
+        // the ground parts are shared, the type variables are fresh in every copy
+        FunType f1 = (FunType) first.getArgument();
+        FunType f2 = (FunType) second.getArgument();
+        Type ints = ((FunType) f1.getResult()).getResult();
+        assertSame(ints, ((FunType) f2.getResult()).getResult());
+        assertNotEquals(f1.getArgument(), f2.getArgument());
+
+        // unifying one copy leaves the others alone
+        TypeChecker.unify("test", f1.getArgument(), Type.con("Int"));
+        assertEquals("(Int -> b -> [Int]) -> [Int] -> [b] -> [[Int]]", first.prettyPrint());
+        assertEquals(signature.prettyPrint(), second.prettyPrint());
+        assertEquals(signature.prettyPrint(), template.instantiate().prettyPrint());
+    }
+
+    @Test(expected = HaskellTypeError.class)
+    public void testKeepsConstraints() throws HaskellTypeError {
+        Environment env = new HaskellCatalog().asEnvironment();
+        FunType copy = (FunType) TypeTemplate.of(env.buildType("Num a => a -> a")).instantiate();
+        TypeChecker.unify("test", copy.getArgument(), Type.con("Char"));
+    }
+
+    @Test
+    public void testGroundGetFresh() {
+        Type ground = Type.fun(Type.listOf(Type.con("Int")), Type.con("Bool"));
+        assertSame(ground, ground.getFresh());
+        Type list = Type.listOf(new TypeVar("a", false));
+        assertNotSame(list, list.getFresh());
+    }
+}
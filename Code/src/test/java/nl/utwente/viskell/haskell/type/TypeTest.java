@@ -2,6 +2,10 @@ package nl.utwente.viskell.haskell.type;
 
 import org.junit.Test;
 
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 
@@ -55,4 +59,12 @@ public class TypeTest {
         TypeChecker.unify("test", t2, t3);
         assertEquals("([Int], [Int])", t2.prettyPrint());
     }
+
+    @Test
+    public final void uniqueInParallelTest() {
+        Set<String> names = IntStream.range(0, 10000).parallel()
+                .mapToObj(i -> TypeScope.unique("p").getName())
+                .collect(Collectors.toSet());
+        assertEquals(10000, names.size());
+    }
 }
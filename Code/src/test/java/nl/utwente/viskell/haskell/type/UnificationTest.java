@@ -9,6 +9,9 @@ import nl.utwente.viskell.haskell.expr.Hole;
 import nl.utwente.viskell.haskell.expr.Value;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import static org.junit.Assert.assertEquals;
 
 public class UnificationTest {
@@ -32,6 +35,37 @@ public class UnificationTest {
         //No exception thrown -> Types are the same, as expected. The test will fail if an Exception is thrown.
     }
 
+    @Test
+    public void testUnifyLongChain() throws HaskellException {
+        List<TypeVar> vars = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            vars.add(new TypeVar("a" + i, false));
+            if (i > 0) {
+                TypeChecker.unify("chain", vars.get(i - 1), vars.get(i));
+            }
+        }
+
+        TypeChecker.unify("chain end", vars.get(0), Type.con("Int"));
+        for (TypeVar var : vars) {
+            assertEquals(vars.get(vars.size() - 1), var);
+            assertEquals("Int", var.prettyPrint());
+        }
+    }
+
+    @Test
+    public void testUnifyDeepType() throws HaskellException {
+        TypeVar a = new TypeVar("a", false);
+        Type ints = Type.con("Int");
+        Type as = a;
+        for (int i = 0; i < 20000; i++) {
+            ints = Type.listOf(ints);
+            as = Type.listOf(as);
+        }
+
+        TypeChecker.unify("deep", ints, as);
+        assertEquals("Int", a.prettyPrint());
+    }
+
     @Test
     public void testUnifyFloats() throws HaskellException {
         Environment env = new HaskellCatalog().asEnvironment();
@@ -0,0 +1,74 @@
+package nl.utwente.viskell.ui;
+
+import com.google.common.collect.ImmutableList;
+import nl.utwente.viskell.haskell.type.Type;
+import nl.utwente.viskell.ui.components.Block;
+import nl.utwente.viskell.ui.components.ChoiceBlock;
+import nl.utwente.viskell.ui.components.ComponentIntegrationTest;
+import nl.utwente.viskell.ui.components.Connection;
+import nl.utwente.viskell.ui.components.ConstantBlock;
+import nl.utwente.viskell.ui.components.DisplayBlock;
+import nl.utwente.viskell.ui.components.FunApplyBlock;
+import nl.utwente.viskell.ui.components.LambdaBlock;
+import nl.utwente.viskell.ui.components.LibraryFunUse;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for grouping new connections by the connected components of their blocks.
+ */
+public class GroupByComponentITCase extends ComponentIntegrationTest {
+    @Test
+    public void containersJoinComponentsTest() throws Exception {
+        onFxThread(() -> {
+            ToplevelPane pane = this.getPane();
+
+            // a block in a lambda is connected from outside, and the lambda is connected to a display
+            LambdaBlock lambda = new LambdaBlock(pane, 1);
+            FunApplyBlock inLambda = this.newNot(pane);
+            inLambda.moveIntoContainer(lambda.getBody());
+            Connection intoLambda = this.fromConstant(pane, inLambda);
+            Connection fromLambda = this.toDisplay(pane, lambda);
+
+            // the same with a block in a lane of a choice
+            ChoiceBlock choice = new ChoiceBlock(pane);
+            FunApplyBlock inChoice = this.newNot(pane);
+            inChoice.moveIntoContainer(choice.getLanes().get(0));
+            Connection intoChoice = this.fromConstant(pane, inChoice);
+            Connection fromChoice = this.toDisplay(pane, choice);
+
+            // and a component without containers
+            Connection unrelated = this.toDisplay(pane, this.newNot(pane));
+
+            List<Connection> connections = ImmutableList.of(intoLambda, intoChoice, unrelated, fromChoice, fromLambda);
+            List<List<Connection>> components = new ArrayList<>(ToplevelPane.groupByComponent(connections));
+
+            assertEquals(ImmutableList.of(
+                    ImmutableList.of(intoLambda, fromLambda),
+                    ImmutableList.of(intoChoice, fromChoice),
+                    ImmutableList.of(unrelated)), components);
+        });
+    }
+
+    private FunApplyBlock newNot(ToplevelPane pane) {
+        FunApplyBlock block = new FunApplyBlock(pane, new LibraryFunUse(pane.getEnvInstance().lookupFun("not")));
+        pane.addBlock(block);
+        return block;
+    }
+
+    private Connection fromConstant(ToplevelPane pane, FunApplyBlock block) {
+        ConstantBlock constant = new ConstantBlock(pane, Type.con("Bool"), "True", true);
+        pane.addBlock(constant);
+        return new Connection(constant.getAllOutputs().get(0), block.getAllInputs().get(0));
+    }
+
+    private Connection toDisplay(ToplevelPane pane, Block block) {
+        DisplayBlock display = new DisplayBlock(pane);
+        pane.addBlock(display);
+        return new Connection(block.getAllOutputs().get(0), display.getAllInputs().get(0));
+    }
+}
@@ -0,0 +1,60 @@
+package nl.utwente.viskell.ui.components;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.function.DoubleUnaryOperator;
+
+public class AdaptiveSamplerTest {
+    /** Runs all rounds of sampling a function, and returns the sampler. */
+    private static AdaptiveSampler sampleAll(DoubleUnaryOperator f, int maxSamples) {
+        AdaptiveSampler sampler = new AdaptiveSampler(-5, 5, maxSamples);
+        double[] xs = sampler.start();
+        while (xs.length > 0) {
+            double[] ys = new double[xs.length];
+            for (int i = 0; i < xs.length; i++) {
+                ys[i] = f.applyAsDouble(xs[i]);
+            }
+            xs = sampler.refine(xs, ys);
+        }
+        return sampler;
+    }
+
+    @Test
+    public void straightLineStaysCoarse() {
+        AdaptiveSampler sampler = sampleAll(x -> 2 * x + 1, 1000);
+        Assert.assertEquals(AdaptiveSampler.INITIAL_INTERVALS + 1, sampler.getXs().length);
+    }
+
+    @Test
+    public void smoothCurveNeedsFewSamples() {
+        AdaptiveSampler sampler = sampleAll(Math::sin, 1000);
+        Assert.assertTrue(sampler.getXs().length < 250);
+
+        double[] xs = sampler.getXs();
+        for (int i = 1; i < xs.length; i++) {
+            Assert.assertTrue(xs[i - 1] < xs[i]);
+        }
+    }
+
+    @Test
+    public void jumpGetsResolved() {
+        AdaptiveSampler sampler = sampleAll(x -> x < 0.3 ? 0 : 1, 1000);
+        double[] xs = sampler.getXs();
+
+        // the samples around the jump are close together
+        double gap = Double.POSITIVE_INFINITY;
+        for (int i = 1; i < xs.length; i++) {
+            if (xs[i - 1] < 0.3 && xs[i] >= 0.3) {
+                gap = xs[i] - xs[i - 1];
+            }
+        }
+        Assert.assertTrue(gap <= 10.0 / 1000 * 2);
+    }
+
+    @Test
+    public void capsSampleCount() {
+        AdaptiveSampler sampler = sampleAll(x -> Math.sin(50 * x), 200);
+        Assert.assertTrue(sampler.getXs().length <= 200);
+    }
+}
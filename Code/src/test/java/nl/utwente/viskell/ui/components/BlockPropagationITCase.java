@@ -0,0 +1,119 @@
+package nl.utwente.viskell.ui.components;
+
+import nl.utwente.viskell.haskell.type.Type;
+import nl.utwente.viskell.ui.ToplevelPane;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the change propagation between blocks.
+ */
+public class BlockPropagationITCase extends ComponentIntegrationTest {
+    /** A function block that counts how often its anchor types are refreshed. */
+    private static class CountingFunBlock extends FunApplyBlock {
+        private int retyped = 0;
+
+        CountingFunBlock(ToplevelPane pane, String name) {
+            super(pane, new LibraryFunUse(pane.getEnvInstance().lookupFun(name)));
+        }
+
+        @Override
+        protected void refreshAnchorTypes() {
+            this.retyped++;
+            super.refreshAnchorTypes();
+        }
+    }
+
+    /** A display block that counts how often its visual state is refreshed. */
+    private static class CountingDisplayBlock extends DisplayBlock {
+        private int evaluated = 0;
+
+        CountingDisplayBlock(ToplevelPane pane) {
+            super(pane);
+        }
+
+        @Override
+        public void invalidateVisualState() {
+            this.evaluated++;
+            super.invalidateVisualState();
+        }
+    }
+
+    private ConstantBlock constant;
+    private CountingFunBlock and;
+    private CountingDisplayBlock display;
+    private CountingFunBlock even;
+
+    @Test
+    public void closedAnchorStopsRetypingTest() throws Exception {
+        onFxThread(() -> {
+            ToplevelPane pane = this.getPane();
+            this.constant = new ConstantBlock(pane, Type.con("Bool"), "True", true);
+            this.and = new CountingFunBlock(pane, "(&&)");
+            this.display = new CountingDisplayBlock(pane);
+            pane.addBlock(this.constant);
+            pane.addBlock(this.and);
+            pane.addBlock(this.display);
+
+            // both inputs of the and come from the same constant, so the blocks behind it are reached twice
+            OutputAnchor value = this.constant.getAllOutputs().get(0);
+            new Connection(value, this.and.getAllInputs().get(0));
+            new Connection(value, this.and.getAllInputs().get(1));
+            new Connection(this.and.getAllOutputs().get(0), this.display.getAllInputs().get(0));
+            this.constant.initiateConnectionChanges();
+        });
+        // let the visual refreshes of the first propagation happen
+        onFxThread(() -> {});
+
+        onFxThread(() -> {
+            this.and.retyped = 0;
+            this.display.evaluated = 0;
+            this.constant.setValue("False");
+            this.constant.initiateConnectionChanges();
+        });
+        onFxThread(() -> {});
+
+        onFxThread(() -> {
+            // the inputs of the and have a closed type, so only its value changed
+            assertTrue(this.and.getAllInputs().get(0).hasClosedType());
+            assertEquals(0, this.and.retyped);
+            assertEquals(1, this.display.evaluated);
+        });
+    }
+
+    @Test
+    public void unchangedClosedSourceStopsRetypingTest() throws Exception {
+        onFxThread(() -> {
+            ToplevelPane pane = this.getPane();
+            this.constant = new ConstantBlock(pane, Type.con("Int"), "1", true);
+            this.even = new CountingFunBlock(pane, "even");
+            this.display = new CountingDisplayBlock(pane);
+            pane.addBlock(this.constant);
+            pane.addBlock(this.even);
+            pane.addBlock(this.display);
+
+            new Connection(this.constant.getAllOutputs().get(0), this.even.getAllInputs().get(0));
+            new Connection(this.even.getAllOutputs().get(0), this.display.getAllInputs().get(0));
+            this.constant.initiateConnectionChanges();
+        });
+        onFxThread(() -> {});
+
+        onFxThread(() -> {
+            this.even.retyped = 0;
+            this.display.evaluated = 0;
+            this.constant.setValue("2");
+            this.constant.initiateConnectionChanges();
+        });
+        onFxThread(() -> {});
+
+        onFxThread(() -> {
+            // the input of even has a type variable, but the constant still gives it the same closed type
+            assertFalse(this.even.getAllInputs().get(0).hasClosedType());
+            assertEquals(0, this.even.retyped);
+            assertEquals(1, this.display.evaluated);
+        });
+    }
+}
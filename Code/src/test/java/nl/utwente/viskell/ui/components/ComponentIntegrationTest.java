@@ -1,11 +1,17 @@
 package nl.utwente.viskell.ui.components;
 
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.stage.Stage;
 import nl.utwente.viskell.ghcj.GhciSession;
 import nl.utwente.viskell.ui.ToplevelPane;
 import org.junit.BeforeClass;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
 /**
  * Superclass for component tests.
  */
@@ -41,4 +47,29 @@ public class ComponentIntegrationTest {
         ghci.startAsync();
         return new ToplevelPane(ghci);
     }
+
+    /**
+     * Runs an action on the JavaFX thread, and waits until it is done.
+     * @param action The action to run.
+     */
+    protected static void onFxThread(Runnable action) throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        Throwable[] failure = new Throwable[1];
+        Platform.runLater(() -> {
+            try {
+                action.run();
+            } catch (Throwable e) {
+                failure[0] = e;
+            } finally {
+                done.countDown();
+            }
+        });
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        if (failure[0] instanceof Error) {
+            throw (Error) failure[0];
+        } else if (failure[0] != null) {
+            throw new Exception(failure[0]);
+        }
+    }
 }
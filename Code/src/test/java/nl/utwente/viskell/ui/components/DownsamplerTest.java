@@ -0,0 +1,37 @@
+package nl.utwente.viskell.ui.components;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DownsamplerTest {
+    @Test
+    public void keepsSmallSeries() {
+        double[] xs = {0, 1, 2};
+        Assert.assertArrayEquals(new int[] {0, 1, 2}, Downsampler.largestTriangleThreeBuckets(xs, xs, 10));
+    }
+
+    @Test
+    public void keepsEndsAndPeak() {
+        int n = 1000;
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = i;
+            ys[i] = i == 537 ? 100 : 0;
+        }
+
+        int[] kept = Downsampler.largestTriangleThreeBuckets(xs, ys, 50);
+        Assert.assertEquals(50, kept.length);
+        Assert.assertEquals(0, kept[0]);
+        Assert.assertEquals(n - 1, kept[kept.length - 1]);
+
+        boolean peak = false;
+        for (int i = 0; i < kept.length; i++) {
+            peak |= kept[i] == 537;
+            if (i > 0) {
+                Assert.assertTrue(kept[i - 1] < kept[i]);
+            }
+        }
+        Assert.assertTrue(peak);
+    }
+}